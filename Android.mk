@@ -16,3 +16,5 @@
 #
 #include $(BUILD_STATIC_JAVA_LIBRARY)
 
+# instrumentation tests, run against SystemUI
+include $(call all-makefiles-under,$(call my-dir))
@@ -32,7 +32,11 @@ import com.android.systemui.navigation.Res;
 import com.android.systemui.navigation.NavigationController.NavbarOverlayResources;
 import com.android.systemui.navigation.pulse.PulseController;
 import com.android.systemui.navigation.pulse.PulseController.PulseObserver;
+import com.android.systemui.navigation.pulse.PulseLayer;
+import com.android.systemui.navigation.utils.LatencyTracker;
+import com.android.systemui.navigation.utils.NavbarSpringSolver;
 import com.android.systemui.navigation.utils.SmartObserver;
+import com.android.systemui.navigation.utils.TapTimingModel;
 import com.android.systemui.statusbar.phone.BarTransitions;
 import com.android.systemui.statusbar.phone.PhoneStatusBar;
 import com.android.systemui.R;
@@ -40,8 +44,6 @@ import com.android.systemui.R;
 import com.android.internal.utils.du.DUActionUtils;
 import com.android.internal.utils.du.ImageHelper;
 
-import com.facebook.rebound.Spring;
-import com.facebook.rebound.SpringSystem;
 
 import android.animation.LayoutTransition;
 import android.app.StatusBarManager;
@@ -55,6 +57,8 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Message;
+import android.os.UserHandle;
+import android.provider.Settings;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Display;
@@ -80,7 +84,8 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
     public static final int MSG_INVALIDATE = 102;
     public static boolean sIsTablet;
 
-    private boolean mKeyguardShowing;
+    // read off the UI thread when queued actions are validated
+    private volatile boolean mKeyguardShowing;
 
     protected H mHandler = new H();
     protected final Display mDisplay;
@@ -98,12 +103,15 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
     protected OnVerticalChangedListener mOnVerticalChangedListener;
     protected SmartObserver mSmartObserver;
     protected PulseController mPulse;
+    protected PulseLayer mPulseLayer;
     protected PhoneStatusBar mBar;
+    protected final LatencyTracker mLatencyTracker;
+    protected final TapTimingModel mTapTimingModel = new TapTimingModel();
 
     public NavbarOverlayResources mResourceMap;
 
     // use access methods to keep state proper
-    private SpringSystem mSpringSystem;
+    private NavbarSpringSolver mSpringSolver;
 
     // listeners from PhoneStatusBar
     protected View.OnTouchListener mHomeActionListener;
@@ -151,7 +159,8 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         mDisplay = ((WindowManager) context.getSystemService(
                 Context.WINDOW_SERVICE)).getDefaultDisplay();
         mSmartObserver = new SmartObserver(mHandler, context.getContentResolver());
-        mSpringSystem = SpringSystem.create();
+        mSpringSolver = new NavbarSpringSolver();
+        mLatencyTracker = new LatencyTracker(getClass().getSimpleName());
         sIsTablet = !DUActionUtils.navigationBarCanMove();
     }
 
@@ -193,9 +202,26 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
 	@Override
 	public void setControllers(PulseController pulseController) {
 	    mPulse = pulseController;
+	    if (mPulseLayer == null) {
+	        mPulseLayer = new PulseLayer(getContext());
+	    }
+	    mPulse.setPulseLayer(mPulseLayer);
 	    mPulse.setPulseObserver(this);
+	    attachPulseLayer();
 	}
 
+    // keep the Pulse layer in the visible rotation frame, behind the buttons
+    private void attachPulseLayer() {
+        if (mPulseLayer == null || mCurrentView == null
+                || mPulseLayer.getParent() == mCurrentView) {
+            return;
+        }
+        if (mPulseLayer.getParent() != null) {
+            ((ViewGroup) mPulseLayer.getParent()).removeView(mPulseLayer);
+        }
+        ((ViewGroup) mCurrentView).addView(mPulseLayer, 0);
+    }
+
     @Override
     public void setStatusBar(PhoneStatusBar statusbar) {
         mBar = statusbar;
@@ -208,22 +234,31 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         updateLayoutTransitionsEnabled();
     }
 
-    public SpringSystem getSpringSystem() {
-        if (mSpringSystem == null) {
-            mSpringSystem = SpringSystem.create();
+    public LatencyTracker getLatencyTracker() {
+        return mLatencyTracker;
+    }
+
+    public TapTimingModel getTapTimingModel() {
+        return mTapTimingModel;
+    }
+
+    protected void updateAdaptiveTimingSetting() {
+        mTapTimingModel.setEnabled(Settings.Secure.getIntForUser(
+                getContext().getContentResolver(), TapTimingModel.NAVBAR_ADAPTIVE_TIMING_URI, 0,
+                UserHandle.USER_CURRENT) == 1);
+    }
+
+    public NavbarSpringSolver getSpringSolver() {
+        if (mSpringSolver == null) {
+            mSpringSolver = new NavbarSpringSolver();
         }
-        return mSpringSystem;
+        return mSpringSolver;
     }
 
     public void flushSpringSystem() {
-        if (mSpringSystem != null) {
-            for (Spring spring : mSpringSystem.getAllSprings()) {
-                spring.setAtRest();
-                spring.removeAllListeners();
-                spring.destroy();
-            }
-            mSpringSystem.removeAllListeners();
-            mSpringSystem = null;
+        if (mSpringSolver != null) {
+            mSpringSolver.clear();
+            mSpringSolver = null;
         }
     }
 
@@ -378,6 +413,11 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         mSmartObserver.cleanUp();
         if (mPulse != null) {
             mPulse.doUnlinkVisualizer();
+            mPulse.setPulseLayer(null);
+        }
+        if (mPulseLayer != null) {
+            mPulseLayer.release();
+            mPulseLayer = null;
         }
         flushSpringSystem();
         onDispose();
@@ -420,6 +460,7 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
         }
         mCurrentView = mRotatedViews[rot];
         mCurrentView.setVisibility(View.VISIBLE);
+        attachPulseLayer();
 
         if (DEBUG) {
             Log.d(TAG, "reorient(): rot=" + mDisplay.getRotation());
@@ -562,7 +603,8 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
     @Override
     public void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (mPulse != null) {
+        // Pulse draws itself on its own layer when that surface is up
+        if (mPulse != null && !mPulse.isLayerRendering()) {
             mPulse.onDraw(canvas);
         }
     }
@@ -636,6 +678,18 @@ public abstract class BaseNavigationBar extends LinearLayout implements Navigato
                         mCurrentView.getWidth(), mCurrentView.getHeight(),
                         visibilityToString(mCurrentView.getVisibility())));
 
+        mLatencyTracker.dump(pw, "      ");
+        mTapTimingModel.dump(pw, "      ");
+        if (args != null) {
+            for (String arg : args) {
+                if (LatencyTracker.DUMP_ARG_RESET.equals(arg)) {
+                    mLatencyTracker.reset();
+                    pw.println("      latency reset");
+                    break;
+                }
+            }
+        }
+
         pw.println("    }");
     }
 
@@ -32,6 +32,9 @@ import java.util.Map;
 import java.util.Set;
 
 import com.android.systemui.navigation.fling.FlingGestureHandler.Swipeable;
+import com.android.systemui.navigation.utils.ActionExecutor;
+import com.android.systemui.navigation.utils.ActionExecutor.StepTarget;
+import com.android.systemui.navigation.utils.LatencyTracker;
 import com.android.systemui.navigation.utils.SmartObserver.SmartObservable;
 import com.android.internal.utils.du.ActionConstants;
 import com.android.internal.utils.du.ActionHandler;
@@ -57,33 +60,104 @@ public class FlingActionHandler implements Swipeable, SmartObservable {
                             .getUri()));
     }
 
-    private Map<String, ActionConfig> mActionMap = new HashMap<String, ActionConfig>();
+    private static final FlingGesture[] GESTURES = FlingGesture.values();
+    // fastest a scrub reaches its target, deltas in between coalesce
+    private static final long SCRUB_STEP_INTERVAL = 50;
+
+    // settings tag of each gesture
+    private static final Map<String, FlingGesture> sTagToGesture =
+            new HashMap<String, FlingGesture>();
+    // gesture whose action stands in when a gesture has none bound, or null
+    private static final FlingGesture[] sFallbacks = new FlingGesture[GESTURES.length];
+    static {
+        sTagToGesture.put(ActionConstants.Fling.SINGLE_LEFT_TAP_TAG, FlingGesture.SINGLE_LEFT_TAP);
+        sTagToGesture.put(ActionConstants.Fling.SINGLE_RIGHT_TAP_TAG, FlingGesture.SINGLE_RIGHT_TAP);
+        sTagToGesture.put(ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG, FlingGesture.DOUBLE_LEFT_TAP);
+        sTagToGesture.put(ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG, FlingGesture.DOUBLE_RIGHT_TAP);
+        sTagToGesture.put(ActionConstants.Fling.LONG_LEFT_PRESS_TAG, FlingGesture.LONG_LEFT_PRESS);
+        sTagToGesture.put(ActionConstants.Fling.LONG_RIGHT_PRESS_TAG, FlingGesture.LONG_RIGHT_PRESS);
+        sTagToGesture.put(ActionConstants.Fling.FLING_SHORT_LEFT_TAG, FlingGesture.SHORT_LEFT_SWIPE);
+        sTagToGesture.put(ActionConstants.Fling.FLING_LONG_LEFT_TAG, FlingGesture.LONG_LEFT_SWIPE);
+        sTagToGesture.put(ActionConstants.Fling.FLING_SHORT_RIGHT_TAG, FlingGesture.SHORT_RIGHT_SWIPE);
+        sTagToGesture.put(ActionConstants.Fling.FLING_LONG_RIGHT_TAG, FlingGesture.LONG_RIGHT_SWIPE);
+        sTagToGesture.put(ActionConstants.Fling.FLING_LEFT_UP_TAG, FlingGesture.UP_LEFT_SWIPE);
+        sTagToGesture.put(ActionConstants.Fling.FLING_RIGHT_UP_TAG, FlingGesture.UP_RIGHT_SWIPE);
+
+        // single taps, presses and up swipes borrow from the other side. side swipes
+        // stand alone, and so do double taps: a side without one fires taps right away
+        setFallbackPair(FlingGesture.SINGLE_LEFT_TAP, FlingGesture.SINGLE_RIGHT_TAP);
+        setFallbackPair(FlingGesture.LONG_LEFT_PRESS, FlingGesture.LONG_RIGHT_PRESS);
+        setFallbackPair(FlingGesture.UP_LEFT_SWIPE, FlingGesture.UP_RIGHT_SWIPE);
+    }
+
+    private static void setFallbackPair(FlingGesture left, FlingGesture right) {
+        sFallbacks[left.ordinal()] = right;
+        sFallbacks[right.ordinal()] = left;
+    }
+
+    // action fired by each gesture, fallbacks already applied. null if nothing is bound
+    private final ActionConfig[] mActions = new ActionConfig[GESTURES.length];
+    private final ActionConfig[] mBoundActions = new ActionConfig[GESTURES.length];
     private View mHost;
     private Context mContext;
-    private boolean isDoubleTapEnabled;
-    private boolean mKeyguardShowing;
+    private boolean mDoubleTapLeftEnabled;
+    private boolean mDoubleTapRightEnabled;
+    // read again on the action worker
+    private volatile boolean mKeyguardShowing;
+    private LatencyTracker mLatencyTracker;
+    private final ScrubTargets mScrubTargets;
+    // target of the scrub in progress, or null
+    private StepTarget mScrubTarget;
+
+    private final ActionExecutor.ActionValidator mValidator = new ActionExecutor.ActionValidator() {
+        @Override
+        public boolean isActionAllowed(String action) {
+            return isAllowedInKeyguard(action);
+        }
+    };
 
     public FlingActionHandler(Context context, View host) {
         mContext = context;
         mHost = host;
+        mScrubTargets = new ScrubTargets(context);
         loadConfigs();
     }
 
     void loadConfigs() {
-        mActionMap.clear();
+        for (int i = 0; i < mBoundActions.length; i++) {
+            mBoundActions[i] = null;
+        }
         ArrayList<ButtonConfig> configs = Config.getConfig(mContext,
                 ActionConstants.getDefaults(ActionConstants.FLING));
         for (Map.Entry<String, ConfigMap> entry : ActionConstants
                 .getDefaults(ActionConstants.FLING).getActionMap().entrySet()) {
+            FlingGesture gesture = sTagToGesture.get(entry.getKey());
+            if (gesture == null) {
+                continue;
+            }
             ButtonConfig button = configs.get(entry.getValue().button);
-            ActionConfig action = button.getActionConfig(entry.getValue().action);
-            mActionMap.put(entry.getKey(), action);
+            mBoundActions[gesture.ordinal()] = button.getActionConfig(entry.getValue().action);
+        }
+        for (int i = 0; i < mActions.length; i++) {
+            ActionConfig action = mBoundActions[i];
+            if (!hasAction(action) && sFallbacks[i] != null) {
+                action = mBoundActions[sFallbacks[i].ordinal()];
+            }
+            mActions[i] = hasAction(action) ? action : null;
         }
-        isDoubleTapEnabled = !((ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG))
-                .hasNoAction()
-                || !((ActionConfig) mActionMap.get(ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG))
-                        .hasNoAction();
+        mDoubleTapLeftEnabled = mActions[FlingGesture.DOUBLE_LEFT_TAP.ordinal()] != null;
+        mDoubleTapRightEnabled = mActions[FlingGesture.DOUBLE_RIGHT_TAP.ordinal()] != null;
+    }
+
+    private static boolean hasAction(ActionConfig action) {
+        return action != null && !action.hasNoAction();
+    }
+
+    /**
+     * @return the action a gesture fires after fallbacks, or null if none
+     */
+    public ActionConfig getAction(FlingGesture gesture) {
+        return mActions[gesture.ordinal()];
     }
 
     public void setKeyguardShowing(boolean showing) {
@@ -93,123 +167,175 @@ public class FlingActionHandler implements Swipeable, SmartObservable {
         mKeyguardShowing = showing;
     }
 
+    public void setLatencyTracker(LatencyTracker tracker) {
+        mLatencyTracker = tracker;
+    }
+
     public void fireAction(ActionConfig action) {
+        fireAction(action, LatencyTracker.GESTURE_SINGLE_TAP, 0);
+    }
+
+    /**
+     * @param touchTime event time of the touch that completed the gesture,
+     *        0 when there is none and nothing is recorded
+     */
+    private void fireAction(ActionConfig action, int latencyGesture, long touchTime) {
         if (action == null || action.hasNoAction()) {
             return;
         }
         final String theAction = action.getAction();
-        // only back is allowed in keyguard
-        if (mKeyguardShowing
-                && (!TextUtils.equals(theAction, ActionHandler.SYSTEMUI_TASK_BACK))) {
+        if (!isAllowedInKeyguard(theAction)) {
             return;
         }
         mHost.performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
         mHost.playSoundEffect(SoundEffectConstants.CLICK);
-        ActionHandler.performTask(mContext, theAction);
+        if (mLatencyTracker != null) {
+            ActionExecutor.getInstance().execute(mContext, theAction, mValidator,
+                    mLatencyTracker, latencyGesture, touchTime);
+        } else {
+            ActionExecutor.getInstance().execute(mContext, theAction, mValidator);
+        }
+    }
+
+    // only back is allowed in keyguard
+    private boolean isAllowedInKeyguard(String action) {
+        return !mKeyguardShowing || TextUtils.equals(action, ActionHandler.SYSTEMUI_TASK_BACK);
+    }
+
+    public void fireGesture(FlingGesture gesture, long touchTime) {
+        fireAction(mActions[gesture.ordinal()], getLatencyGesture(gesture), touchTime);
+    }
+
+    private static int getLatencyGesture(FlingGesture gesture) {
+        switch (gesture) {
+            case DOUBLE_LEFT_TAP:
+            case DOUBLE_RIGHT_TAP:
+                return LatencyTracker.GESTURE_DOUBLE_TAP;
+            case LONG_LEFT_PRESS:
+            case LONG_RIGHT_PRESS:
+                return LatencyTracker.GESTURE_LONG_PRESS;
+            case SHORT_LEFT_SWIPE:
+            case SHORT_RIGHT_SWIPE:
+                return LatencyTracker.GESTURE_SHORT_SWIPE;
+            case LONG_LEFT_SWIPE:
+            case LONG_RIGHT_SWIPE:
+                return LatencyTracker.GESTURE_LONG_SWIPE;
+            case UP_LEFT_SWIPE:
+            case UP_RIGHT_SWIPE:
+                return LatencyTracker.GESTURE_UP_SWIPE;
+            default:
+                return LatencyTracker.GESTURE_SINGLE_TAP;
+        }
+    }
+
+    @Override
+    public boolean isSameAction(FlingGesture first, FlingGesture second) {
+        final ActionConfig a = mActions[first.ordinal()];
+        final ActionConfig b = mActions[second.ordinal()];
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return TextUtils.equals(a.getAction(), b.getAction());
+    }
+
+    @Override
+    public boolean onScrubStart(boolean isRight) {
+        final ActionConfig action = mActions[isRight ? FlingGesture.LONG_RIGHT_PRESS.ordinal()
+                : FlingGesture.LONG_LEFT_PRESS.ordinal()];
+        mScrubTarget = action == null || mKeyguardShowing || ActionHandler.isLockTaskOn()
+                ? null : mScrubTargets.forAction(action.getAction());
+        if (mScrubTarget == null) {
+            return false;
+        }
+        ActionExecutor.getInstance().startSteps(mScrubTarget);
+        mHost.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+        return true;
+    }
+
+    @Override
+    public void onScrub(int steps) {
+        if (mScrubTarget == null) {
+            return;
+        }
+        mHost.performHapticFeedback(HapticFeedbackConstants.CLOCK_TICK);
+        ActionExecutor.getInstance().step(mScrubTarget, steps, SCRUB_STEP_INTERVAL);
+    }
+
+    @Override
+    public void onScrubEnd() {
+        mScrubTarget = null;
     }
 
     @Override
-    public boolean onDoubleTapEnabled() {
-        return isDoubleTapEnabled;
+    public boolean onDoubleTapEnabled(boolean isRight) {
+        return isRight ? mDoubleTapRightEnabled : mDoubleTapLeftEnabled;
     }
 
     @Override
-    public void onShortLeftSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_SHORT_LEFT_TAG));
+    public void onShortLeftSwipe(long eventTime) {
+        fireGesture(FlingGesture.SHORT_LEFT_SWIPE, eventTime);
     }
 
     @Override
-    public void onLongLeftSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_LONG_LEFT_TAG));
+    public void onLongLeftSwipe(long eventTime) {
+        fireGesture(FlingGesture.LONG_LEFT_SWIPE, eventTime);
     }
 
     @Override
-    public void onShortRightSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_SHORT_RIGHT_TAG));
+    public void onShortRightSwipe(long eventTime) {
+        fireGesture(FlingGesture.SHORT_RIGHT_SWIPE, eventTime);
     }
 
     @Override
-    public void onLongRightSwipe() {
-        fireAction((ActionConfig) mActionMap.get(ActionConstants.Fling.FLING_LONG_RIGHT_TAG));
+    public void onLongRightSwipe(long eventTime) {
+        fireGesture(FlingGesture.LONG_RIGHT_SWIPE, eventTime);
     }
 
     @Override
-    public void onUpRightSwipe() {
-        ActionConfig left_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_LEFT_UP_TAG);
-        ActionConfig right_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_RIGHT_UP_TAG);
-        fireAction(!right_swipe.hasNoAction() ? right_swipe : left_swipe);
+    public void onUpRightSwipe(long eventTime) {
+        fireGesture(FlingGesture.UP_RIGHT_SWIPE, eventTime);
     }
 
     @Override
-    public void onUpLeftSwipe() {
-        ActionConfig left_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_LEFT_UP_TAG);
-        ActionConfig right_swipe = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.FLING_RIGHT_UP_TAG);
-        fireAction(!left_swipe.hasNoAction() ? left_swipe : right_swipe);
+    public void onUpLeftSwipe(long eventTime) {
+        fireGesture(FlingGesture.UP_LEFT_SWIPE, eventTime);
     }
 
     @Override
-    public void onSingleLeftPress() {
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_LEFT_TAP_TAG);
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_RIGHT_TAP_TAG);
-        fireAction(!left_tap.hasNoAction() ? left_tap : right_tap);
+    public void onSingleLeftPress(long eventTime) {
+        fireGesture(FlingGesture.SINGLE_LEFT_TAP, eventTime);
     }
 
     @Override
-    public void onSingleRightPress() {
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_RIGHT_TAP_TAG);
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.SINGLE_LEFT_TAP_TAG);
-        fireAction(!right_tap.hasNoAction() ? right_tap : left_tap);
+    public void onSingleRightPress(long eventTime) {
+        fireGesture(FlingGesture.SINGLE_RIGHT_TAP, eventTime);
     }
 
     @Override
-    public void onDoubleLeftTap() {
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG);
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG);
-        fireAction(!left_tap.hasNoAction() ? left_tap : right_tap);
+    public void onDoubleLeftTap(long eventTime) {
+        fireGesture(FlingGesture.DOUBLE_LEFT_TAP, eventTime);
     }
 
     @Override
-    public void onDoubleRightTap() {
-        ActionConfig right_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_RIGHT_TAP_TAG);
-        ActionConfig left_tap = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.DOUBLE_LEFT_TAP_TAG);
-        fireAction(!right_tap.hasNoAction() ? right_tap : left_tap);
+    public void onDoubleRightTap(long eventTime) {
+        fireGesture(FlingGesture.DOUBLE_RIGHT_TAP, eventTime);
     }
 
     @Override
-    public void onLongLeftPress() {
-        ActionConfig left_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_LEFT_PRESS_TAG);
-        ActionConfig right_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_RIGHT_PRESS_TAG);
+    public void onLongLeftPress(long eventTime) {
         if (ActionHandler.isLockTaskOn()) {
             ActionHandler.turnOffLockTask();
         } else {
-            fireAction(!left_long.hasNoAction() ? left_long : right_long);
+            fireGesture(FlingGesture.LONG_LEFT_PRESS, eventTime);
         }
     }
 
     @Override
-    public void onLongRightPress() {
-        ActionConfig right_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_RIGHT_PRESS_TAG);
-        ActionConfig left_long = (ActionConfig) mActionMap
-                .get(ActionConstants.Fling.LONG_LEFT_PRESS_TAG);
+    public void onLongRightPress(long eventTime) {
         if (ActionHandler.isLockTaskOn()) {
             ActionHandler.turnOffLockTask();
         } else {
-            fireAction(!right_long.hasNoAction() ? right_long : left_long);
+            fireGesture(FlingGesture.LONG_RIGHT_PRESS, eventTime);
         }
     }
 
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Transparent overlay that hosts a single Fling touch effect. Each effect
+ * invalidates only its own view, so a ripple frame re-records the ripple
+ * display list alone and leaves Pulse, the trails and the logo untouched.
+ * The layer never takes touches, FlingView still sees every event
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+public class FlingEffectLayer extends View {
+    public interface Effect {
+        public void onDraw(Canvas canvas);
+    }
+
+    private Effect mEffect;
+
+    public FlingEffectLayer(Context context) {
+        super(context);
+        setLayoutParams(new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        setClickable(false);
+        setFocusable(false);
+        setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+    }
+
+    public void setEffect(Effect effect) {
+        mEffect = effect;
+    }
+
+    public void setEffectEnabled(boolean enabled) {
+        setVisibility(enabled ? View.VISIBLE : View.GONE);
+    }
+
+    // place this layer in the given frame at index, above Pulse and behind the buttons
+    public void attachTo(ViewGroup parent, int index) {
+        if (getParent() == parent) {
+            return;
+        }
+        if (getParent() != null) {
+            ((ViewGroup) getParent()).removeView(this);
+        }
+        parent.addView(this, Math.min(index, parent.getChildCount()));
+    }
+
+    @Override
+    public boolean hasOverlappingRendering() {
+        return false;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mEffect != null) {
+            mEffect.onDraw(canvas);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Every gesture Fling can bind an action to. "Left" and "right" are bar
+ * relative: on a vertical bar right is the top half
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+public enum FlingGesture {
+    SINGLE_LEFT_TAP,
+    SINGLE_RIGHT_TAP,
+    DOUBLE_LEFT_TAP,
+    DOUBLE_RIGHT_TAP,
+    LONG_LEFT_PRESS,
+    LONG_RIGHT_PRESS,
+    SHORT_LEFT_SWIPE,
+    LONG_LEFT_SWIPE,
+    SHORT_RIGHT_SWIPE,
+    LONG_RIGHT_SWIPE,
+    UP_LEFT_SWIPE,
+    UP_RIGHT_SWIPE
+}
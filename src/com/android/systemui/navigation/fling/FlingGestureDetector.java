@@ -15,6 +15,10 @@
  * 
  * Haxd up version from sdk. exposed some values
  * 
+ * Keeps only the touch fields it needs instead of MotionEvent copies and
+ * hands listeners reusable read-only GestureEvent snapshots. One runnable
+ * with three deadlines replaces the SHOW_PRESS/LONG_PRESS/TAP messages
+ * 
  */
 package com.android.systemui.navigation.fling;
 
@@ -22,7 +26,7 @@ import com.android.systemui.R;
 
 import android.content.Context;
 import android.os.Handler;
-import android.os.Message;
+import android.os.SystemClock;
 import android.view.InputEventConsistencyVerifier;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
@@ -52,36 +56,36 @@ public class FlingGestureDetector {
     public interface OnGestureListener {
 
         /**
-         * Notified when a tap occurs with the down {@link MotionEvent}
+         * Notified when a tap occurs with the down {@link GestureEvent}
          * that triggered it. This will be triggered immediately for
          * every down event. All other events should be preceded by this.
          *
          * @param e The down motion event.
          */
-        boolean onDown(MotionEvent e);
+        boolean onDown(GestureEvent e);
 
         /**
-         * The user has performed a down {@link MotionEvent} and not performed
+         * The user has performed a down {@link GestureEvent} and not performed
          * a move or up yet. This event is commonly used to provide visual
          * feedback to the user to let them know that their action has been
          * recognized i.e. highlight an element.
          *
          * @param e The down motion event
          */
-        void onShowPress(MotionEvent e);
+        void onShowPress(GestureEvent e);
 
         /**
-         * Notified when a tap occurs with the up {@link MotionEvent}
+         * Notified when a tap occurs with the up {@link GestureEvent}
          * that triggered it.
          *
          * @param e The up motion event that completed the first tap
          * @return true if the event is consumed, else false
          */
-        boolean onSingleTapUp(MotionEvent e);
+        boolean onSingleTapUp(GestureEvent e);
 
         /**
-         * Notified when a scroll occurs with the initial on down {@link MotionEvent} and the
-         * current move {@link MotionEvent}. The distance in x and y is also supplied for
+         * Notified when a scroll occurs with the initial on down {@link GestureEvent} and the
+         * current move {@link GestureEvent}. The distance in x and y is also supplied for
          * convenience.
          *
          * @param e1 The first down motion event that started the scrolling.
@@ -94,19 +98,19 @@ public class FlingGestureDetector {
          *              and {@code e2}.
          * @return true if the event is consumed, else false
          */
-        boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY);
+        boolean onScroll(GestureEvent e1, GestureEvent e2, float distanceX, float distanceY);
 
         /**
-         * Notified when a long press occurs with the initial on down {@link MotionEvent}
+         * Notified when a long press occurs with the initial on down {@link GestureEvent}
          * that trigged it.
          *
          * @param e The initial on down motion event that started the longpress.
          */
-        void onLongPress(MotionEvent e);
+        void onLongPress(GestureEvent e);
 
         /**
-         * Notified of a fling event when it occurs with the initial on down {@link MotionEvent}
-         * and the matching up {@link MotionEvent}. The calculated velocity is supplied along
+         * Notified of a fling event when it occurs with the initial on down {@link GestureEvent}
+         * and the matching up {@link GestureEvent}. The calculated velocity is supplied along
          * the x and y axis in pixels per second.
          *
          * @param e1 The first down motion event that started the fling.
@@ -117,7 +121,7 @@ public class FlingGestureDetector {
          *              along the y axis.
          * @return true if the event is consumed, else false
          */
-        boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY);
+        boolean onFling(GestureEvent e1, GestureEvent e2, float velocityX, float velocityY);
     }
 
     /**
@@ -128,7 +132,7 @@ public class FlingGestureDetector {
         /**
          * Notified when a single-tap occurs.
          * <p>
-         * Unlike {@link OnGestureListener#onSingleTapUp(MotionEvent)}, this
+         * Unlike {@link OnGestureListener#onSingleTapUp(GestureEvent)}, this
          * will only be called after the detector is confident that the user's
          * first tap is not followed by a second tap leading to a double-tap
          * gesture.
@@ -136,7 +140,7 @@ public class FlingGestureDetector {
          * @param e The down motion event of the single-tap.
          * @return true if the event is consumed, else false
          */
-        boolean onSingleTapConfirmed(MotionEvent e);
+        boolean onSingleTapConfirmed(GestureEvent e);
  
         /**
          * Notified when a double-tap occurs.
@@ -144,7 +148,7 @@ public class FlingGestureDetector {
          * @param e The down motion event of the first tap of the double-tap.
          * @return true if the event is consumed, else false
          */
-        boolean onDoubleTap(MotionEvent e);
+        boolean onDoubleTap(GestureEvent e);
 
         /**
          * Notified when an event within a double-tap gesture occurs, including
@@ -153,7 +157,7 @@ public class FlingGestureDetector {
          * @param e The motion event that occurred during the double-tap gesture.
          * @return true if the event is consumed, else false
          */
-        boolean onDoubleTapEvent(MotionEvent e);
+        boolean onDoubleTapEvent(GestureEvent e);
     }
 
     /**
@@ -163,43 +167,160 @@ public class FlingGestureDetector {
      * nothing and return {@code false} for all applicable methods.
      */
     public static class SimpleOnGestureListener implements OnGestureListener, OnDoubleTapListener {
-        public boolean onSingleTapUp(MotionEvent e) {
+        public boolean onSingleTapUp(GestureEvent e) {
             return false;
         }
 
-        public void onLongPress(MotionEvent e) {
+        public void onLongPress(GestureEvent e) {
         }
 
-        public boolean onScroll(MotionEvent e1, MotionEvent e2,
+        public boolean onScroll(GestureEvent e1, GestureEvent e2,
                 float distanceX, float distanceY) {
             return false;
         }
 
-        public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX,
+        public boolean onFling(GestureEvent e1, GestureEvent e2, float velocityX,
                 float velocityY) {
             return false;
         }
 
-        public void onShowPress(MotionEvent e) {
+        public void onShowPress(GestureEvent e) {
         }
 
-        public boolean onDown(MotionEvent e) {
+        public boolean onDown(GestureEvent e) {
             return false;
         }
 
-        public boolean onDoubleTap(MotionEvent e) {
+        public boolean onDoubleTap(GestureEvent e) {
             return false;
         }
 
-        public boolean onDoubleTapEvent(MotionEvent e) {
+        public boolean onDoubleTapEvent(GestureEvent e) {
             return false;
         }
 
-        public boolean onSingleTapConfirmed(MotionEvent e) {
+        public boolean onSingleTapConfirmed(GestureEvent e) {
             return false;
         }
     }
 
+    /**
+     * The listener that is used to turn a held press into a scrub. When a long
+     * press is due the listener may claim it, then it gets the moves and the
+     * end of the gesture instead of {@link OnGestureListener#onLongPress}
+     */
+    public interface OnScrubListener {
+        /**
+         * @param e The down motion event of the held press
+         * @return true to scrub instead of reporting a long press
+         */
+        boolean onScrubStart(GestureEvent e);
+
+        /**
+         * @param e The move motion event while scrubbing
+         */
+        void onScrub(GestureEvent e);
+
+        /**
+         * @param e The up motion event, or the last event seen when cancelled
+         * @param cancelled the gesture was cancelled rather than lifted
+         */
+        void onScrubEnd(GestureEvent e, boolean cancelled);
+    }
+
+    /**
+     * Time source and timeout scheduling. Defaults to uptime and the
+     * detector's handler, trace replays swap in a virtual clock
+     */
+    public interface Clock {
+        public long uptimeMillis();
+
+        public void postAtTime(Runnable r, long uptimeMillis);
+
+        public void removeCallbacks(Runnable r);
+    }
+
+    /**
+     * @return a clock reading uptime and scheduling on the given handler
+     */
+    public static Clock newHandlerClock(final Handler handler) {
+        return new Clock() {
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
+            }
+
+            @Override
+            public void postAtTime(Runnable r, long uptimeMillis) {
+                handler.postAtTime(r, uptimeMillis);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable r) {
+                handler.removeCallbacks(r);
+            }
+        };
+    }
+
+    /**
+     * Read-only view of the touch state a callback is about. Instances are
+     * owned and reused by the detector, so listeners must copy out anything
+     * they need past the callback
+     */
+    public static final class GestureEvent {
+        private float mX;
+        private float mY;
+        private long mEventTime;
+        private long mDownTime;
+        private int mPointerId;
+        private int mAction;
+
+        private GestureEvent() {
+        }
+
+        public float getX() {
+            return mX;
+        }
+
+        public float getY() {
+            return mY;
+        }
+
+        public long getEventTime() {
+            return mEventTime;
+        }
+
+        public long getDownTime() {
+            return mDownTime;
+        }
+
+        public int getPointerId() {
+            return mPointerId;
+        }
+
+        public int getActionMasked() {
+            return mAction;
+        }
+
+        private void set(MotionEvent ev) {
+            mX = ev.getX();
+            mY = ev.getY();
+            mEventTime = ev.getEventTime();
+            mDownTime = ev.getDownTime();
+            mPointerId = ev.getPointerId(0);
+            mAction = ev.getActionMasked();
+        }
+
+        private void set(GestureEvent e) {
+            mX = e.mX;
+            mY = e.mY;
+            mEventTime = e.mEventTime;
+            mDownTime = e.mDownTime;
+            mPointerId = e.mPointerId;
+            mAction = e.mAction;
+        }
+    }
+
     private int mTouchSlopSquare;
     private int mDoubleTapTouchSlopSquare;
     private int mDoubleTapSlopSquare;
@@ -211,23 +332,33 @@ public class FlingGestureDetector {
     private static final int DOUBLE_TAP_TIMEOUT = ViewConfiguration.getDoubleTapTimeout();
     private static final int DOUBLE_TAP_MIN_TIME = ViewConfiguration.getDoubleTapMinTime();
 
-    // constants for Message.what used by GestureHandler below
-    private static final int SHOW_PRESS = 1;
-    private static final int LONG_PRESS = 2;
-    private static final int TAP = 3;
-
     private final Handler mHandler;
+    private Clock mClock;
     private final OnGestureListener mListener;
     private OnDoubleTapListener mDoubleTapListener;
+    private OnScrubListener mScrubListener;
 
     private boolean mStillDown;
     private boolean mDeferConfirmSingleTap;
     private boolean mInLongPress;
+    private boolean mInScrub;
     private boolean mAlwaysInTapRegion;
     private boolean mAlwaysInBiggerTapRegion;
 
-    private MotionEvent mCurrentDownEvent;
-    private MotionEvent mPreviousUpEvent;
+    // snapshots handed to listeners: the down that started the gesture and the current event
+    private final GestureEvent mDownEvent = new GestureEvent();
+    private final GestureEvent mEvent = new GestureEvent();
+    private boolean mHasDownEvent;
+    // only the time of the previous up is needed for the double tap check
+    private long mPreviousUpTime;
+    private boolean mHasPreviousUp;
+
+    // pending deadlines in uptime millis, 0 when not armed. A single runnable
+    // posted for the earliest one stands in for the SDK's three messages
+    private long mShowPressAt;
+    private long mLongPressAt;
+    private long mTapAt;
+    private long mScheduledAt;
 
     /**
      * True when the user is still touching for the second tap (down, move, and
@@ -243,7 +374,8 @@ public class FlingGestureDetector {
     private boolean mIsLongpressEnabled;
 
     /**
-     * Determines speed during touch scrolling
+     * Determines speed during touch scrolling. Kept for the life of the
+     * detector and cleared between gestures
      */
     private VelocityTracker mVelocityTracker;
 
@@ -254,42 +386,27 @@ public class FlingGestureDetector {
             InputEventConsistencyVerifier.isInstrumentationEnabled() ?
                     new InputEventConsistencyVerifier(this, 0) : null;
 
-    private class GestureHandler extends Handler {
-        GestureHandler() {
-            super();
-        }
-
-        GestureHandler(Handler handler) {
-            super(handler.getLooper());
-        }
-
+    private final Runnable mTimeoutRunnable = new Runnable() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-            case SHOW_PRESS:
-                mListener.onShowPress(mCurrentDownEvent);
-                break;
-                
-            case LONG_PRESS:
+        public void run() {
+            mScheduledAt = 0;
+            final long now = mClock.uptimeMillis();
+            if (mShowPressAt != 0 && now >= mShowPressAt) {
+                mShowPressAt = 0;
+                mListener.onShowPress(mDownEvent);
+            }
+            // keep message order when a stall made both tap and long press due
+            if (mTapAt != 0 && (mLongPressAt == 0 || mTapAt <= mLongPressAt)) {
+                dispatchTapIfDue(now);
+            }
+            if (mLongPressAt != 0 && now >= mLongPressAt) {
+                mLongPressAt = 0;
                 dispatchLongPress();
-                break;
-                
-            case TAP:
-                // If the user's finger is still down, do not count it as a tap
-                if (mDoubleTapListener != null) {
-                    if (!mStillDown) {
-                        mDoubleTapListener.onSingleTapConfirmed(mCurrentDownEvent);
-                    } else {
-                        mDeferConfirmSingleTap = true;
-                    }
-                }
-                break;
-
-            default:
-                throw new RuntimeException("Unknown message " + msg); //never
             }
+            dispatchTapIfDue(now);
+            scheduleTimeouts();
         }
-    }
+    };
 
     /**
      * Creates a GestureDetector with the supplied listener.
@@ -343,10 +460,11 @@ public class FlingGestureDetector {
      */
     public FlingGestureDetector(Context context, OnGestureListener listener, Handler handler) {
         if (handler != null) {
-            mHandler = new GestureHandler(handler);
+            mHandler = new Handler(handler.getLooper());
         } else {
-            mHandler = new GestureHandler();
+            mHandler = new Handler();
         }
+        mClock = newHandlerClock(mHandler);
         mListener = listener;
         if (listener instanceof OnDoubleTapListener) {
             setOnDoubleTapListener((OnDoubleTapListener) listener);
@@ -417,6 +535,25 @@ public class FlingGestureDetector {
         mDoubleTapListener = onDoubleTapListener;
     }
 
+    /**
+     * Sets the listener which may turn held presses into scrubs
+     *
+     * @param onScrubListener the listener, or null to always report long presses
+     */
+    public void setOnScrubListener(OnScrubListener onScrubListener) {
+        mScrubListener = onScrubListener;
+    }
+
+    /**
+     * Replace the time source, dropping anything scheduled on the old one
+     */
+    public void setClock(Clock clock) {
+        mClock.removeCallbacks(mTimeoutRunnable);
+        mScheduledAt = 0;
+        mClock = clock;
+        scheduleTimeouts();
+    }
+
     /**
      * Set whether longpress is enabled, if this is enabled when a user
      * presses and holds down you get a longpress event and nothing further.
@@ -437,6 +574,13 @@ public class FlingGestureDetector {
         return LONGPRESS_TIMEOUT;
     }
 
+    /**
+     * @override to see how long a press that became a long press was held,
+     * down to up. Scrubs count too
+     */
+    protected void onLongPressUp(long heldMillis) {
+    }
+
     /**
      * @override to set custom doubletap timeout
      */
@@ -478,6 +622,7 @@ public class FlingGestureDetector {
         }
 
         final int action = ev.getAction();
+        mEvent.set(ev);
 
         if (mVelocityTracker == null) {
             mVelocityTracker = VelocityTracker.obtain();
@@ -538,70 +683,73 @@ public class FlingGestureDetector {
 
         case MotionEvent.ACTION_DOWN:
             if (mDoubleTapListener != null) {
-                boolean hadTapMessage = mHandler.hasMessages(TAP);
-                if (hadTapMessage) mHandler.removeMessages(TAP);
-                if ((mCurrentDownEvent != null) && (mPreviousUpEvent != null) && hadTapMessage &&
-                        isConsideredDoubleTap(mCurrentDownEvent, mPreviousUpEvent, ev)) {
+                boolean hadTapMessage = mTapAt != 0;
+                mTapAt = 0;
+                if (mHasDownEvent && mHasPreviousUp && hadTapMessage &&
+                        isConsideredDoubleTap(ev)) {
                     // This is a second tap
                     mIsDoubleTapping = true;
                     // Give a callback with the first tap of the double-tap
-                    handled |= mDoubleTapListener.onDoubleTap(mCurrentDownEvent);
+                    handled |= mDoubleTapListener.onDoubleTap(mDownEvent);
                     // Give a callback with down event of the double-tap
-                    handled |= mDoubleTapListener.onDoubleTapEvent(ev);
+                    handled |= mDoubleTapListener.onDoubleTapEvent(mEvent);
                 } else {
                     // This is a first tap
-                    mHandler.sendEmptyMessageDelayed(TAP, getDoubleTapTimeout());
+                    mTapAt = mClock.uptimeMillis() + getDoubleTapTimeout();
                 }
             }
 
+            endScrub(true);
             mDownFocusX = mLastFocusX = focusX;
             mDownFocusY = mLastFocusY = focusY;
-            if (mCurrentDownEvent != null) {
-                mCurrentDownEvent.recycle();
-            }
-            mCurrentDownEvent = MotionEvent.obtain(ev);
+            mDownEvent.set(mEvent);
+            mHasDownEvent = true;
             mAlwaysInTapRegion = true;
             mAlwaysInBiggerTapRegion = true;
             mStillDown = true;
             mInLongPress = false;
             mDeferConfirmSingleTap = false;
-            
+
             if (mIsLongpressEnabled) {
-                mHandler.removeMessages(LONG_PRESS);
-                mHandler.sendEmptyMessageAtTime(LONG_PRESS, mCurrentDownEvent.getDownTime()
-                        + getTapTimeout() + getLongPressTimeout());
+                mLongPressAt = mDownEvent.getDownTime() + getTapTimeout() + getLongPressTimeout();
             }
-            mHandler.sendEmptyMessageAtTime(SHOW_PRESS, mCurrentDownEvent.getDownTime() + getTapTimeout());
-            handled |= mListener.onDown(ev);
+            mShowPressAt = mDownEvent.getDownTime() + getTapTimeout();
+            scheduleTimeouts();
+            handled |= mListener.onDown(mEvent);
             break;
 
         case MotionEvent.ACTION_MOVE:
             if (mInLongPress) {
+                if (mInScrub) {
+                    mScrubListener.onScrub(mEvent);
+                    handled = true;
+                }
                 break;
             }
             final float scrollX = mLastFocusX - focusX;
             final float scrollY = mLastFocusY - focusY;
             if (mIsDoubleTapping) {
                 // Give the move events of the double-tap
-                handled |= mDoubleTapListener.onDoubleTapEvent(ev);
+                handled |= mDoubleTapListener.onDoubleTapEvent(mEvent);
             } else if (mAlwaysInTapRegion) {
                 final int deltaX = (int) (focusX - mDownFocusX);
                 final int deltaY = (int) (focusY - mDownFocusY);
                 int distance = (deltaX * deltaX) + (deltaY * deltaY);
                 if (distance > mTouchSlopSquare) {
-                    handled = mListener.onScroll(mCurrentDownEvent, ev, scrollX, scrollY);
+                    handled = mListener.onScroll(mDownEvent, mEvent, scrollX, scrollY);
                     mLastFocusX = focusX;
                     mLastFocusY = focusY;
                     mAlwaysInTapRegion = false;
-                    mHandler.removeMessages(TAP);
-                    mHandler.removeMessages(SHOW_PRESS);
-                    mHandler.removeMessages(LONG_PRESS);
+                    mTapAt = 0;
+                    mShowPressAt = 0;
+                    mLongPressAt = 0;
+                    scheduleTimeouts();
                 }
                 if (distance > mDoubleTapTouchSlopSquare) {
                     mAlwaysInBiggerTapRegion = false;
                 }
             } else if ((Math.abs(scrollX) >= 1) || (Math.abs(scrollY) >= 1)) {
-                handled = mListener.onScroll(mCurrentDownEvent, ev, scrollX, scrollY);
+                handled = mListener.onScroll(mDownEvent, mEvent, scrollX, scrollY);
                 mLastFocusX = focusX;
                 mLastFocusY = focusY;
             }
@@ -609,17 +757,18 @@ public class FlingGestureDetector {
 
         case MotionEvent.ACTION_UP:
             mStillDown = false;
-            MotionEvent currentUpEvent = MotionEvent.obtain(ev);
             if (mIsDoubleTapping) {
                 // Finally, give the up event of the double-tap
-                handled |= mDoubleTapListener.onDoubleTapEvent(ev);
+                handled |= mDoubleTapListener.onDoubleTapEvent(mEvent);
             } else if (mInLongPress) {
-                mHandler.removeMessages(TAP);
+                mTapAt = 0;
                 mInLongPress = false;
+                onLongPressUp(ev.getEventTime() - ev.getDownTime());
+                handled = endScrub(false);
             } else if (mAlwaysInTapRegion) {
-                handled = mListener.onSingleTapUp(ev);
+                handled = mListener.onSingleTapUp(mEvent);
                 if (mDeferConfirmSingleTap && mDoubleTapListener != null) {
-                    mDoubleTapListener.onSingleTapConfirmed(ev);
+                    mDoubleTapListener.onSingleTapConfirmed(mEvent);
                 }
             } else {
 
@@ -632,24 +781,18 @@ public class FlingGestureDetector {
 
                 if ((Math.abs(velocityY) > mMinimumFlingVelocity)
                         || (Math.abs(velocityX) > mMinimumFlingVelocity)){
-                    handled = mListener.onFling(mCurrentDownEvent, ev, velocityX, velocityY);
+                    handled = mListener.onFling(mDownEvent, mEvent, velocityX, velocityY);
                 }
             }
-            if (mPreviousUpEvent != null) {
-                mPreviousUpEvent.recycle();
-            }
-            // Hold the event we obtained above - listeners may have changed the original.
-            mPreviousUpEvent = currentUpEvent;
-            if (mVelocityTracker != null) {
-                // This may have been cleared when we called out to the
-                // application above.
-                mVelocityTracker.recycle();
-                mVelocityTracker = null;
-            }
+            // Read from the raw event, listeners only ever saw the snapshot
+            mPreviousUpTime = ev.getEventTime();
+            mHasPreviousUp = true;
+            mVelocityTracker.clear();
             mIsDoubleTapping = false;
             mDeferConfirmSingleTap = false;
-            mHandler.removeMessages(SHOW_PRESS);
-            mHandler.removeMessages(LONG_PRESS);
+            mShowPressAt = 0;
+            mLongPressAt = 0;
+            scheduleTimeouts();
             break;
 
         case MotionEvent.ACTION_CANCEL:
@@ -663,12 +806,23 @@ public class FlingGestureDetector {
         return handled;
     }
 
+    /**
+     * Cancel the gesture in flight and forget the previous up, so a replay
+     * starts from the state of a fresh detector
+     */
+    void reset() {
+        cancel();
+        mHasDownEvent = false;
+        mHasPreviousUp = false;
+        mPreviousUpTime = 0;
+    }
+
     private void cancel() {
-        mHandler.removeMessages(SHOW_PRESS);
-        mHandler.removeMessages(LONG_PRESS);
-        mHandler.removeMessages(TAP);
-        mVelocityTracker.recycle();
-        mVelocityTracker = null;
+        mShowPressAt = 0;
+        mLongPressAt = 0;
+        mTapAt = 0;
+        scheduleTimeouts();
+        mVelocityTracker.clear();
         mIsDoubleTapping = false;
         mStillDown = false;
         mAlwaysInTapRegion = false;
@@ -677,12 +831,14 @@ public class FlingGestureDetector {
         if (mInLongPress) {
             mInLongPress = false;
         }
+        endScrub(true);
     }
 
     private void cancelTaps() {
-        mHandler.removeMessages(SHOW_PRESS);
-        mHandler.removeMessages(LONG_PRESS);
-        mHandler.removeMessages(TAP);
+        mShowPressAt = 0;
+        mLongPressAt = 0;
+        mTapAt = 0;
+        scheduleTimeouts();
         mIsDoubleTapping = false;
         mAlwaysInTapRegion = false;
         mAlwaysInBiggerTapRegion = false;
@@ -690,29 +846,82 @@ public class FlingGestureDetector {
         if (mInLongPress) {
             mInLongPress = false;
         }
+        endScrub(true);
+    }
+
+    // returns true if a scrub was running
+    private boolean endScrub(boolean cancelled) {
+        if (!mInScrub) {
+            return false;
+        }
+        mInScrub = false;
+        mScrubListener.onScrubEnd(mEvent, cancelled);
+        return true;
+    }
+
+    /**
+     * Keep the one timeout runnable posted for the earliest armed deadline,
+     * or pulled when nothing is armed
+     */
+    private void scheduleTimeouts() {
+        long next = 0;
+        if (mShowPressAt != 0) {
+            next = mShowPressAt;
+        }
+        if (mLongPressAt != 0 && (next == 0 || mLongPressAt < next)) {
+            next = mLongPressAt;
+        }
+        if (mTapAt != 0 && (next == 0 || mTapAt < next)) {
+            next = mTapAt;
+        }
+        if (next == mScheduledAt) {
+            return;
+        }
+        mClock.removeCallbacks(mTimeoutRunnable);
+        mScheduledAt = next;
+        if (next != 0) {
+            mClock.postAtTime(mTimeoutRunnable, next);
+        }
     }
 
-    private boolean isConsideredDoubleTap(MotionEvent firstDown, MotionEvent firstUp,
-            MotionEvent secondDown) {
+    private void dispatchTapIfDue(long now) {
+        if (mTapAt == 0 || now < mTapAt) {
+            return;
+        }
+        mTapAt = 0;
+        // If the user's finger is still down, do not count it as a tap
+        if (mDoubleTapListener != null) {
+            if (!mStillDown) {
+                mDoubleTapListener.onSingleTapConfirmed(mDownEvent);
+            } else {
+                mDeferConfirmSingleTap = true;
+            }
+        }
+    }
+
+    private boolean isConsideredDoubleTap(MotionEvent secondDown) {
         if (!mAlwaysInBiggerTapRegion) {
             return false;
         }
 
-        final long deltaTime = secondDown.getEventTime() - firstUp.getEventTime();
+        final long deltaTime = secondDown.getEventTime() - mPreviousUpTime;
         if (deltaTime > getDoubleTapTimeout() || deltaTime < getDoubleTapMinTime()) {
             return false;
         }
 
-        int deltaX = (int) firstDown.getX() - (int) secondDown.getX();
-        int deltaY = (int) firstDown.getY() - (int) secondDown.getY();
+        int deltaX = (int) mDownEvent.getX() - (int) secondDown.getX();
+        int deltaY = (int) mDownEvent.getY() - (int) secondDown.getY();
         return (deltaX * deltaX + deltaY * deltaY < mDoubleTapSlopSquare);
     }
 
     private void dispatchLongPress() {
-        mHandler.removeMessages(TAP);
+        mTapAt = 0;
         mDeferConfirmSingleTap = false;
         mInLongPress = true;
-        mListener.onLongPress(mCurrentDownEvent);
+        if (mScrubListener != null && mScrubListener.onScrubStart(mDownEvent)) {
+            mInScrub = true;
+            return;
+        }
+        mListener.onLongPress(mDownEvent);
     }
 }
-
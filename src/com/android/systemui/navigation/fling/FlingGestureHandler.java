@@ -28,8 +28,12 @@ import java.util.HashSet;
 import java.util.Set;
 
 import com.android.systemui.R;
+import com.android.systemui.navigation.fling.FlingGestureDetector.Clock;
+import com.android.systemui.navigation.fling.FlingGestureDetector.GestureEvent;
 import com.android.systemui.navigation.fling.FlingGestureDetector.OnGestureListener;
+import com.android.systemui.navigation.fling.FlingGestureDetector.OnScrubListener;
 import com.android.systemui.navigation.utils.SmartObserver.SmartObservable;
+import com.android.systemui.navigation.utils.TapTimingModel;
 import com.android.internal.utils.du.DUActionUtils;
 
 import android.content.ContentResolver;
@@ -39,44 +43,72 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.UserHandle;
 import android.provider.Settings;
-import android.util.Log;
-import android.view.MotionEvent;
 import android.view.ViewConfiguration;
 import android.view.View;
 
-public class FlingGestureHandler implements OnGestureListener, SmartObservable {
+public class FlingGestureHandler implements OnGestureListener, OnScrubListener,
+        SmartObservable {
 /*
  * Callback for listeners that are interested in receiving Fling taps and gestures
  *
  */
     public interface Swipeable {
-        public boolean onDoubleTapEnabled();
+        /**
+         * @param isRight side of the bar the tap landed on
+         * @return true if a second tap on that side does something
+         */
+        public boolean onDoubleTapEnabled(boolean isRight);
 
-        public void onSingleLeftPress();
+        /*
+         * Gesture callbacks take the event time of the touch that completed
+         * the gesture: the up for taps, the second down for double taps, the
+         * down for long presses and the deciding move or up for swipes
+         */
+        public void onSingleLeftPress(long eventTime);
 
-        public void onSingleRightPress();
+        public void onSingleRightPress(long eventTime);
 
-        public void onDoubleLeftTap();
+        public void onDoubleLeftTap(long eventTime);
 
-        public void onDoubleRightTap();
+        public void onDoubleRightTap(long eventTime);
 
-        public void onLongLeftPress();
+        public void onLongLeftPress(long eventTime);
 
-        public void onLongRightPress();
+        public void onLongRightPress(long eventTime);
 
-        public void onShortLeftSwipe();
+        public void onShortLeftSwipe(long eventTime);
 
-        public void onLongLeftSwipe();
+        public void onLongLeftSwipe(long eventTime);
 
-        public void onShortRightSwipe();
+        public void onShortRightSwipe(long eventTime);
 
-        public void onLongRightSwipe();
+        public void onLongRightSwipe(long eventTime);
 
-        public void onUpRightSwipe();
+        public void onUpRightSwipe(long eventTime);
 
-        public void onUpLeftSwipe();
+        public void onUpLeftSwipe(long eventTime);
+
+        public boolean isSameAction(FlingGesture first, FlingGesture second);
+
+        /**
+         * @param isRight side of the bar being held
+         * @return true if holding there scrubs instead of long pressing
+         */
+        public boolean onScrubStart(boolean isRight);
+
+        /**
+         * @param steps signed steps since the last call, positive toward the right end
+         */
+        public void onScrub(int steps);
+
+        public void onScrubEnd();
     }
 
+    // fire side swipes from onScroll once the outcome is settled
+    public static final String FLING_EARLY_SWIPE_URI = "fling_early_swipe";
+    // hold and slide along the bar to step the long press action
+    public static final String FLING_SCRUB_URI = "fling_scrub";
+
     private static Set<Uri> sUris = new HashSet<Uri>();
     static {
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.FLING_LONGSWIPE_THRESHOLD_LEFT_LAND));
@@ -85,6 +117,8 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.FLING_LONGSWIPE_THRESHOLD_RIGHT_PORT));
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.FLING_LONGSWIPE_THRESHOLD_UP_LAND));
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.FLING_LONGSWIPE_THRESHOLD_DOWN_LAND));
+        sUris.add(Settings.Secure.getUriFor(FLING_EARLY_SWIPE_URI));
+        sUris.add(Settings.Secure.getUriFor(FLING_SCRUB_URI));
     }
 
     private static String TAG = "FlingGestureHandler";
@@ -92,12 +126,44 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
 
     // AOSP DT timeout feels a bit slow on nx
     private static final int DT_TIMEOUT = ViewConfiguration.getDoubleTapTimeout() - 100;
+    // scrub travel per step, in density pixels
+    private static final float SCRUB_STEP_DISTANCE = 12f;
 
     // in-house double tap logic
     private Handler mHandler = new Handler();
+    private Clock mClock = FlingGestureDetector.newHandlerClock(mHandler);
     private boolean mIsDoubleTapPending;
+    // side and up time of the tap waiting for a second one
+    private boolean mDoubleTapPendingRight;
+    private long mDoubleTapPendingTime;
+
+    // feeds the adaptive double tap window, null when not in use
+    private TapTimingModel mTimingModel;
+    private long mLastTapUpTime;
+    private boolean mLastTapRight;
+    private boolean mHasLastTap;
     private boolean mWasConsumed;
 
+    // streaming swipe recognition
+    private boolean mEarlySwipeEnabled;
+    private boolean mEarlySwipeFired;
+    private final int mMinimumFlingVelocity;
+    private float mLastScrollX;
+    private float mLastScrollY;
+    private long mLastScrollTime;
+    private float mScrollVelocityX;
+    private float mScrollVelocityY;
+
+    // hold and slide stepping
+    private boolean mScrubEnabled;
+    private boolean mScrubRight;
+    private boolean mScrubMoved;
+    private float mScrubOriginX;
+    private float mScrubOriginY;
+    // steps reported so far, relative to the origin
+    private int mScrubSteps;
+    private final float mScrubStepDistance;
+
     // long swipe thresholds from user settings or default config
     //
     // left and right thresholds for tablets when device orientation is landscape
@@ -112,8 +178,8 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
 
     // pass Fling events to listener
     private Swipeable mReceiver;
-    // swipe analysis and state
-    private final FlingSwipe mFlingSwipe = new FlingSwipe();
+    // swipe analysis, rebuilt when bar geometry or thresholds change
+    private final SwipeClassifier mClassifier = new SwipeClassifier();
     private Context mContext;
 
     // for width/height logic
@@ -127,7 +193,7 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
         public void run() {
             mWasConsumed = false;
             mIsDoubleTapPending = false;
-            mReceiver.onSingleLeftPress();
+            mReceiver.onSingleLeftPress(mDoubleTapPendingTime);
         }
     };
 
@@ -136,7 +202,7 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
         public void run() {
             mWasConsumed = false;
             mIsDoubleTapPending = false;
-            mReceiver.onSingleRightPress();
+            mReceiver.onSingleRightPress(mDoubleTapPendingTime);
         }
     };
 
@@ -145,6 +211,9 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
         mReceiver = swiper;
         mHost = host;
         mIsTablet = isTablet;
+        mMinimumFlingVelocity = ViewConfiguration.get(context).getScaledMinimumFlingVelocity();
+        mScrubStepDistance = SCRUB_STEP_DISTANCE
+                * context.getResources().getDisplayMetrics().density;
         updateSettings();
     }
 
@@ -156,6 +225,89 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
 
     public void setLeftInLandscape(boolean leftInLandscape) {
         mLeftInLandscape = leftInLandscape;
+        updateGeometry();
+    }
+
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        updateGeometry();
+    }
+
+    private void updateGeometry() {
+        mClassifier.setGeometry(mHost.getWidth(), mHost.getHeight(),
+                DUActionUtils.isLandscape(mContext), mLeftInLandscape);
+    }
+
+    /**
+     * Classify against the given bar instead of the host view, for replays
+     */
+    void setGeometry(int width, int height, boolean isLandscape, boolean leftInLandscape) {
+        mLeftInLandscape = leftInLandscape;
+        mClassifier.setGeometry(width, height, isLandscape, leftInLandscape);
+    }
+
+    /**
+     * Copy the recognizer settings in effect into a trace being recorded
+     */
+    void writeSettings(TouchTrace trace) {
+        trace.setThresholds(mLeftLand, mRightLand, mLeftPort, mRightPort, mUpVert, mDownVert);
+        trace.setEarlySwipeEnabled(mEarlySwipeEnabled);
+        trace.setScrubEnabled(mScrubEnabled);
+        trace.setDoubleTapEnabled(mReceiver.onDoubleTapEnabled(false),
+                mReceiver.onDoubleTapEnabled(true));
+        // the only pairs onScroll ever asks about
+        trace.setSameSwipeAction(
+                mReceiver.isSameAction(FlingGesture.SHORT_LEFT_SWIPE, FlingGesture.LONG_LEFT_SWIPE),
+                mReceiver.isSameAction(FlingGesture.SHORT_RIGHT_SWIPE,
+                        FlingGesture.LONG_RIGHT_SWIPE));
+    }
+
+    /**
+     * Use the settings a trace was recorded with instead of the live ones, for replays
+     */
+    void applySettings(TouchTrace trace) {
+        mLeftLand = trace.getLeftLandThreshold();
+        mRightLand = trace.getRightLandThreshold();
+        mLeftPort = trace.getLeftPortThreshold();
+        mRightPort = trace.getRightPortThreshold();
+        mUpVert = trace.getUpVertThreshold();
+        mDownVert = trace.getDownVertThreshold();
+        mClassifier.setThresholds(mLeftLand, mRightLand, mLeftPort, mRightPort,
+                mUpVert, mDownVert);
+        mEarlySwipeEnabled = trace.isEarlySwipeEnabled();
+        mScrubEnabled = trace.isScrubEnabled();
+    }
+
+    /**
+     * Drop any pending double tap and what is known of the last gesture,
+     * so a replay starts from the state of a fresh handler
+     */
+    void reset() {
+        mClock.removeCallbacks(mDoubleTapLeftTimeout);
+        mClock.removeCallbacks(mDoubleTapRightTimeout);
+        mIsDoubleTapPending = false;
+        mHasLastTap = false;
+        mWasConsumed = false;
+        mEarlySwipeFired = false;
+        mScrubMoved = false;
+        mScrubSteps = 0;
+    }
+
+    public void setTimingModel(TapTimingModel model) {
+        mTimingModel = model;
+    }
+
+    private int getDoubleTapTimeout() {
+        return mTimingModel != null ? mTimingModel.getDoubleTapTimeout(DT_TIMEOUT) : DT_TIMEOUT;
+    }
+
+    /**
+     * Replace the time source for double tap timeouts, dropping pending ones
+     */
+    public void setClock(Clock clock) {
+        mClock.removeCallbacks(mDoubleTapLeftTimeout);
+        mClock.removeCallbacks(mDoubleTapRightTimeout);
+        mIsDoubleTapPending = false;
+        mClock = clock;
     }
 
     public void setOnSwipeListener(Swipeable swiper) {
@@ -165,97 +317,223 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
     }
 
     @Override
-    public boolean onDown(MotionEvent e) {
+    public boolean onDown(GestureEvent e) {
+        mEarlySwipeFired = false;
+        mLastScrollX = e.getX();
+        mLastScrollY = e.getY();
+        mLastScrollTime = e.getEventTime();
+        mScrollVelocityX = 0f;
+        mScrollVelocityY = 0f;
+        final boolean isRight = isRightSide(e.getX(), e.getY());
+        if (mHasLastTap) {
+            mHasLastTap = false;
+            final long interval = e.getEventTime() - mLastTapUpTime;
+            // measured against the full window so misses of a shortened one are seen
+            if (mTimingModel != null && isRight == mLastTapRight && interval <= DT_TIMEOUT) {
+                mTimingModel.onTapInterval(interval);
+            }
+        }
         if (mIsDoubleTapPending) {
-            boolean isRight = isRightSide(e.getX(), e.getY());
             mIsDoubleTapPending = false;
-            mWasConsumed = true;
-            mHandler.removeCallbacks(mDoubleTapLeftTimeout);
-            mHandler.removeCallbacks(mDoubleTapRightTimeout);
-            if (isRight) {
-                mReceiver.onDoubleRightTap();
+            mClock.removeCallbacks(mDoubleTapLeftTimeout);
+            mClock.removeCallbacks(mDoubleTapRightTimeout);
+            if (isRight == mDoubleTapPendingRight) {
+                mWasConsumed = true;
+                if (isRight) {
+                    mReceiver.onDoubleRightTap(e.getEventTime());
+                } else {
+                    mReceiver.onDoubleLeftTap(e.getEventTime());
+                }
+                return true;
+            }
+            // second touch went to the other half, the first was a single tap after all
+            if (mDoubleTapPendingRight) {
+                mReceiver.onSingleRightPress(mDoubleTapPendingTime);
             } else {
-                mReceiver.onDoubleLeftTap();
+                mReceiver.onSingleLeftPress(mDoubleTapPendingTime);
             }
-            return true;
         }
         return false;
     }
 
     @Override
-    public void onShowPress(MotionEvent e) {
+    public void onShowPress(GestureEvent e) {
         // TODO Auto-generated method stub
     }
 
     @Override
-    public boolean onSingleTapUp(MotionEvent e) {
+    public boolean onSingleTapUp(GestureEvent e) {
         boolean isRight = isRightSide(e.getX(), e.getY());
-        if (mReceiver.onDoubleTapEnabled()) {
+        if (mTimingModel != null) {
+            mTimingModel.onTapPress(e.getEventTime() - e.getDownTime());
+        }
+        if (!mWasConsumed) {
+            mLastTapUpTime = e.getEventTime();
+            mLastTapRight = isRight;
+            mHasLastTap = true;
+        }
+        // only wait for a second tap where one could do something
+        if (mReceiver.onDoubleTapEnabled(isRight)) {
             if (mWasConsumed) {
                 mWasConsumed = false;
                 return true;
             }
             mIsDoubleTapPending = true;
+            mDoubleTapPendingRight = isRight;
+            mDoubleTapPendingTime = e.getEventTime();
+            final long timeout = mClock.uptimeMillis() + getDoubleTapTimeout();
             if (isRight) {
-                mHandler.postDelayed(mDoubleTapRightTimeout, DT_TIMEOUT);
+                mClock.postAtTime(mDoubleTapRightTimeout, timeout);
             } else {
-                mHandler.postDelayed(mDoubleTapLeftTimeout, DT_TIMEOUT);
+                mClock.postAtTime(mDoubleTapLeftTimeout, timeout);
             }
         } else {
             if (isRight) {
-                mReceiver.onSingleRightPress();
+                mReceiver.onSingleRightPress(e.getEventTime());
             } else {
-                mReceiver.onSingleLeftPress();
+                mReceiver.onSingleLeftPress(e.getEventTime());
             }
         }
         return true;
     }
 
     @Override
-    public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-        // TODO Auto-generated method stub
-        return false;
+    public boolean onScroll(GestureEvent e1, GestureEvent e2, float distanceX, float distanceY) {
+        if (!mEarlySwipeEnabled || mEarlySwipeFired) {
+            return false;
+        }
+        final long dt = e2.getEventTime() - mLastScrollTime;
+        if (dt > 0) {
+            // light smoothing, single touch reports are noisy
+            mScrollVelocityX = 0.5f * mScrollVelocityX
+                    + 0.5f * (e2.getX() - mLastScrollX) * 1000f / dt;
+            mScrollVelocityY = 0.5f * mScrollVelocityY
+                    + 0.5f * (e2.getY() - mLastScrollY) * 1000f / dt;
+        }
+        mLastScrollX = e2.getX();
+        mLastScrollY = e2.getY();
+        mLastScrollTime = e2.getEventTime();
+
+        final FlingGesture gesture = mClassifier.classifyInProgress(e1.getX(), e1.getY(),
+                e2.getX(), e2.getY(), mScrollVelocityX, mScrollVelocityY,
+                mMinimumFlingVelocity);
+        if (gesture == null) {
+            return false;
+        }
+        // a short swipe can still grow long, only fire it if that changes nothing
+        final FlingGesture longGesture = getLongSwipe(gesture);
+        if (gesture != longGesture && !mReceiver.isSameAction(gesture, longGesture)) {
+            return false;
+        }
+        mEarlySwipeFired = true;
+        dispatchSwipe(gesture, e2.getEventTime());
+        return true;
+    }
+
+    private static FlingGesture getLongSwipe(FlingGesture gesture) {
+        switch (gesture) {
+            case SHORT_LEFT_SWIPE:
+                return FlingGesture.LONG_LEFT_SWIPE;
+            case SHORT_RIGHT_SWIPE:
+                return FlingGesture.LONG_RIGHT_SWIPE;
+            default:
+                return gesture;
+        }
     }
 
     @Override
-    public void onLongPress(MotionEvent e) {
+    public void onLongPress(GestureEvent e) {
         boolean isRight = isRightSide(e.getX(), e.getY());
         if (isRight) {
-            mReceiver.onLongRightPress();
+            mReceiver.onLongRightPress(e.getEventTime());
         } else {
-            mReceiver.onLongLeftPress();
+            mReceiver.onLongLeftPress(e.getEventTime());
         }
     }
 
     @Override
-    public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX,
-            float velocityY) {
-        mFlingSwipe.process(e1, e2);
+    public boolean onScrubStart(GestureEvent e) {
+        if (!mScrubEnabled) {
+            return false;
+        }
+        final boolean isRight = isRightSide(e.getX(), e.getY());
+        if (!mReceiver.onScrubStart(isRight)) {
+            return false;
+        }
+        mScrubRight = isRight;
+        mScrubMoved = false;
+        mScrubOriginX = e.getX();
+        mScrubOriginY = e.getY();
+        mScrubSteps = 0;
+        return true;
+    }
 
-        if (mFlingSwipe.swipeDirection == SwipeDirection.UP) {
-            if (mFlingSwipe.isSwipeOnRight()) {
-                mReceiver.onUpRightSwipe();
-            } else {
-                mReceiver.onUpLeftSwipe();
-            }
-        } else if (mFlingSwipe.swipeDirection == SwipeDirection.LEFT) {
-            if (mFlingSwipe.isThisLongSwipe()) {
-                mReceiver.onLongLeftSwipe();
-            } else {
-                mReceiver.onShortLeftSwipe();
-            }
-        } else if (mFlingSwipe.swipeDirection == SwipeDirection.RIGHT) {
-            if (mFlingSwipe.isThisLongSwipe()) {
-                mReceiver.onLongRightSwipe();
+    @Override
+    public void onScrub(GestureEvent e) {
+        // steps come from total travel, so dropped or bunched moves lose nothing
+        final float travel = mClassifier.getLongAxisTravel(mScrubOriginX, mScrubOriginY,
+                e.getX(), e.getY());
+        final int steps = (int) (travel / mScrubStepDistance);
+        if (steps != mScrubSteps) {
+            mReceiver.onScrub(steps - mScrubSteps);
+            mScrubSteps = steps;
+            mScrubMoved = true;
+        }
+    }
+
+    @Override
+    public void onScrubEnd(GestureEvent e, boolean cancelled) {
+        mReceiver.onScrubEnd();
+        // held and lifted without sliding, that was a long press after all
+        if (!cancelled && !mScrubMoved) {
+            if (mScrubRight) {
+                mReceiver.onLongRightPress(e.getEventTime());
             } else {
-                mReceiver.onShortRightSwipe();
+                mReceiver.onLongLeftPress(e.getEventTime());
             }
         }
+    }
+
+    @Override
+    public boolean onFling(GestureEvent e1, GestureEvent e2, float velocityX,
+            float velocityY) {
+        if (mEarlySwipeFired) {
+            // already handled while the finger was down
+            mEarlySwipeFired = false;
+            return true;
+        }
+        final FlingGesture gesture = mClassifier.classify(e1.getX(), e1.getY(),
+                e2.getX(), e2.getY());
+        if (gesture == null) {
+            return false;
+        }
+        dispatchSwipe(gesture, e2.getEventTime());
         return true;
     }
 
-    private boolean isHorizontal() {
-        return mHost.getWidth() > mHost.getHeight();
+    private void dispatchSwipe(FlingGesture gesture, long eventTime) {
+        switch (gesture) {
+            case UP_RIGHT_SWIPE:
+                mReceiver.onUpRightSwipe(eventTime);
+                break;
+            case UP_LEFT_SWIPE:
+                mReceiver.onUpLeftSwipe(eventTime);
+                break;
+            case LONG_LEFT_SWIPE:
+                mReceiver.onLongLeftSwipe(eventTime);
+                break;
+            case SHORT_LEFT_SWIPE:
+                mReceiver.onShortLeftSwipe(eventTime);
+                break;
+            case LONG_RIGHT_SWIPE:
+                mReceiver.onLongRightSwipe(eventTime);
+                break;
+            case SHORT_RIGHT_SWIPE:
+                mReceiver.onShortRightSwipe(eventTime);
+                break;
+            default:
+                break;
+        }
     }
 
     /*
@@ -265,11 +543,7 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
      * to the bottom half
      */
     private boolean isRightSide(float x, float y) {
-        final boolean isVertical = !isHorizontal();
-        float length = isVertical ? mHost.getHeight() : mHost.getWidth();
-        float pos = isVertical ? y : x;
-        length /= 2;
-        return isVertical ? pos < length : pos > length;
+        return mClassifier.isRightSide(x, y);
     }
 
     private void updateSettings() {
@@ -299,6 +573,15 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
         mDownVert = (float) (Settings.Secure.getIntForUser(
                 resolver, Settings.Secure.FLING_LONGSWIPE_THRESHOLD_DOWN_LAND,
                 40, UserHandle.USER_CURRENT) * 0.01f);
+
+        mClassifier.setThresholds(mLeftLand, mRightLand, mLeftPort, mRightPort,
+                mUpVert, mDownVert);
+
+        mEarlySwipeEnabled = Settings.Secure.getIntForUser(resolver,
+                FLING_EARLY_SWIPE_URI, 0, UserHandle.USER_CURRENT) == 1;
+
+        mScrubEnabled = Settings.Secure.getIntForUser(resolver,
+                FLING_SCRUB_URI, 0, UserHandle.USER_CURRENT) == 1;
     }
 
     @Override
@@ -310,126 +593,4 @@ public class FlingGestureHandler implements OnGestureListener, SmartObservable {
     public void onChange(Uri uri) {
         updateSettings();
     }
-
-    private enum SwipeDirection {
-        LEFT,
-        RIGHT,
-        UP
-    }
-
-    // This class will help despagettify motion handling, maybe ;p
-    private class FlingSwipe {
-        // minimum amount of bar to swipe to validate a vertical swipe
-        private static final float VERTICAL_SWIPE_THRESHOLD = 0.80f;
-        // Maximum swipe angle before fall over into non-vertical swipes
-        private static final double VERTICAL_SWIPE_DEGREES = 30.0d;
-
-        // direction of swipe, either actual or treated as such (vertical bar)
-        private SwipeDirection swipeDirection;
-
-        // was vertical swipe on right/left side
-        private boolean mVerticalSwipeOnRight;
-
-        // Between -1.0 to 1.0  - percent of bar swiped - however we expose only absolute value -
-        // direction should be checked with getSwipeDirection
-        private float horizontalSwipePercent;
-
-        // Between -1.0 to 1.0  - percent of bar swiped - however we expose only absolute value -
-        // direction should be checked with getSwipeDirection
-        private float verticalSwipePercent;
-
-        // the default or user set long swipe threshold for this long swipe event
-        private float longSwipeThreshold;
-
-        public FlingSwipe(){}
-
-        void process(MotionEvent start, MotionEvent end) {
-            // bar and device states
-            final boolean isNavbarHorizontal = isHorizontal();
-            final boolean isLandscape = DUActionUtils.isLandscape(mContext);
-            final float xStart = start.getX();
-            final float yStart = start.getY();
-            final float xDist = end.getX() - xStart;
-            final float yDist = end.getY() - yStart;
-
-            // how much bar long side did the swipe cover
-            horizontalSwipePercent = isNavbarHorizontal ? xDist / mHost.getWidth() :
-                    yDist / mHost.getHeight();
-            // how much bar short side was covered
-            verticalSwipePercent = isNavbarHorizontal ? yDist / mHost.getHeight() :
-                xDist / mHost.getWidth();
-            // which side was the swipe started from
-            mVerticalSwipeOnRight = isRightSide(xStart, yStart);
-
-            final boolean isVerticalSwipe = validateVerticalSwipe(isNavbarHorizontal, isLandscape, xDist, yDist);
-            if(!isVerticalSwipe) {
-                // normal side to side flinging action
-                // first check landscape conditions
-                if (isLandscape) {
-                    // is bar horizontal (tablet)
-                    if (isNavbarHorizontal) {
-                        if (horizontalSwipePercent >= 0) {
-                            swipeDirection = SwipeDirection.RIGHT;
-                            longSwipeThreshold = mRightLand;
-                        } else {
-                            swipeDirection = SwipeDirection.LEFT;
-                            longSwipeThreshold = mLeftLand;
-                        }
-                    } else {
-                        // vertical bar on phones
-                        if (horizontalSwipePercent >= 0) {
-                            swipeDirection = SwipeDirection.LEFT;
-                            longSwipeThreshold = mDownVert;
-                        } else {
-                            swipeDirection = SwipeDirection.RIGHT;
-                            longSwipeThreshold = mUpVert;
-                        }
-                    }
-                } else {
-                    // portrait orientation
-                    if (horizontalSwipePercent >= 0) {
-                        swipeDirection = SwipeDirection.RIGHT;
-                        longSwipeThreshold = mRightPort;
-                    } else {
-                        swipeDirection = SwipeDirection.LEFT;
-                        longSwipeThreshold = mLeftPort;
-                    }
-                }
-            }
-        }
-
-        private boolean validateVerticalSwipe(boolean isHorizontal, boolean isLandscape, float xDistance, float yDistance) {
-            // if we don't meet minimum threshold and we are too sloppy with our vertical swipe
-            // return false to continue processing
-            if (Math.abs(verticalSwipePercent) < VERTICAL_SWIPE_THRESHOLD) {
-                return false;
-            }
-            // calculate the angle of the swipe. If the angle exceeds 30 degrees, it is an invalid
-            // vertical swipe and the event will be handled as a long or short swipe
-            double degrees = Math.abs(Math.toDegrees(Math.atan(((isHorizontal ? xDistance : yDistance) / (isHorizontal ? yDistance : xDistance)))));
-            if(DEBUG) {
-                Log.e(TAG, "Validating a vertical swipe of " + String.valueOf(degrees) + " degrees");
-            }
-            if (degrees > VERTICAL_SWIPE_DEGREES) {
-                return false;
-            }
-            // conditions which must be met for a valid vertical swipe
-            if ((isHorizontal && verticalSwipePercent <= 0)  // horizontal and direction is up
-                    || (!isHorizontal && mLeftInLandscape && verticalSwipePercent >= 0) // vertical bar on left and direction is right
-                    || (!isHorizontal && !mLeftInLandscape && verticalSwipePercent <= 0)) { // vertical bar on right and direction is left
-                swipeDirection = SwipeDirection.UP;
-                return true;
-            }
-            return false;
-        }
-
-        public boolean isThisLongSwipe() {
-            return Math.abs(horizontalSwipePercent) > longSwipeThreshold;
-        }
-
-        public boolean isSwipeOnRight() {
-            return mVerticalSwipeOnRight;
-        }
-    }
-
 }
@@ -17,7 +17,9 @@
  * limitations under the License.
  *
  * Manage logo settings and state. Public helper methods to simplify
- * animations and visibility. 
+ * animations and visibility. The logo drawable is resolved once per
+ * config or theme change and kept per orientation, and the spin
+ * animations are built once and restarted, so touches don't allocate
  *
  */
 
@@ -81,8 +83,11 @@ public class FlingLogoController implements SmartObservable {
     private boolean mAnimateTouchEnabled;
     private int mLogoColor;
     private int mVisibilityLock;
-    private AnimationSet mShow = getSpinAnimation(LOGO_ANIMATE_SHOW);
-    private AnimationSet mHide = getSpinAnimation(LOGO_ANIMATE_HIDE);
+    private final AnimationSet mShow = getSpinAnimation(LOGO_ANIMATE_SHOW);
+    private final AnimationSet mHide = getSpinAnimation(LOGO_ANIMATE_HIDE);
+    // resolved logo for the portrait [0] and landscape [1] layouts, null until needed
+    private final Drawable[] mLogoDrawables = new Drawable[2];
+    private int[] mAppIconPadding;
 
     public FlingLogoController(FlingView host) {
         mHost = host;
@@ -110,17 +115,14 @@ public class FlingLogoController implements SmartObservable {
 
     private void show(AnimationListener listener) {
         mLogoView.animate().cancel();
-        if (listener != null) {
-            mShow.setAnimationListener(listener);
-        }
+        // shared animation, don't let a previous caller's listener fire again
+        mShow.setAnimationListener(listener);
         mLogoView.startAnimation(mShow);
     }
 
     private void hide(AnimationListener listener) {
         mLogoView.animate().cancel();
-        if (listener != null) {
-            mHide.setAnimationListener(listener);
-        }
+        mHide.setAnimationListener(listener);
         mLogoView.startAnimation(mHide);
     }
 
@@ -197,7 +199,7 @@ public class FlingLogoController implements SmartObservable {
         mLogoColor = Settings.Secure.getIntForUser(mContext.getContentResolver(),
                 Settings.Secure.FLING_LOGO_COLOR, -1, UserHandle.USER_CURRENT);
         mLogoConfig = ButtonConfig.getButton(mContext, FLING_LOGO_URI, true);
-        setLogoIcon();
+        reloadLogoIcon();
         mLogoView.setLogoColor(mLogoColor);
         if (mLogoEnabled != enabled) {
             setEnabled(enabled);
@@ -217,17 +219,50 @@ public class FlingLogoController implements SmartObservable {
         mLogoConfig = ButtonConfig.getButton(mContext, FLING_LOGO_URI, true);
     }
 
+    /**
+     * Drop the cached logo and resolve it again, for config and theme changes
+     */
+    void reloadLogoIcon() {
+        mLogoDrawables[0] = null;
+        mLogoDrawables[1] = null;
+        mAppIconPadding = null;
+        setLogoIcon();
+    }
+
     void setLogoIcon() {
         final ViewGroup current = (ViewGroup) mHost.getCurrentView();
         final ViewGroup hidden = (ViewGroup) mHost.getHiddenView();
         ImageView currentLogo = (ImageView)current.findViewById(R.id.fling_console);
         ImageView hiddenLogo = (ImageView)hidden.findViewById(R.id.fling_console);
-        currentLogo.setImageDrawable(null);
-        currentLogo.setImageDrawable(getCurrentDrawable());
-        hiddenLogo.setImageDrawable(null);
-        hiddenLogo.setImageDrawable(getCurrentDrawable());
-        updateButtonScalingAndPadding(currentLogo, mLogoConfig, mHost.isLandscape());
-        updateButtonScalingAndPadding(hiddenLogo, mLogoConfig, !mHost.isLandscape());
+        applyLogo(currentLogo, mHost.isLandscape());
+        applyLogo(hiddenLogo, !mHost.isLandscape());
+    }
+
+    private void applyLogo(ImageView logo, boolean landscape) {
+        final Drawable drawable = getLogoDrawable(landscape);
+        if (logo.getDrawable() != drawable) {
+            logo.setImageDrawable(null);
+            logo.setImageDrawable(drawable);
+        }
+        if (mAppIconPadding == null) {
+            mAppIconPadding = getAppIconPadding(mContext);
+        }
+        updateButtonScalingAndPadding(logo, mLogoConfig, landscape, mAppIconPadding);
+    }
+
+    private Drawable getLogoDrawable(boolean landscape) {
+        final int index = landscape ? 1 : 0;
+        if (mLogoDrawables[index] == null) {
+            // each layout needs its own instance, copy the other one rather than resolve again
+            final Drawable other = mLogoDrawables[1 - index];
+            if (other != null && other.getConstantState() != null) {
+                mLogoDrawables[index] = other.getConstantState()
+                        .newDrawable(mContext.getResources()).mutate();
+            } else {
+                mLogoDrawables[index] = getCurrentDrawable();
+            }
+        }
+        return mLogoDrawables[index];
     }
 
     Drawable getCurrentDrawable() {
@@ -296,8 +331,12 @@ public class FlingLogoController implements SmartObservable {
     }
 
     public static void updateButtonScalingAndPadding(ImageView v, ButtonConfig config, boolean landscape) {
+        updateButtonScalingAndPadding(v, config, landscape, getAppIconPadding(v.getContext()));
+    }
+
+    private static void updateButtonScalingAndPadding(ImageView v, ButtonConfig config,
+            boolean landscape, int[] appIconPadding) {
         // all non-system action icons need some extra padding/scaling work
-        final int[] appIconPadding = getAppIconPadding(v.getContext());
         if (buttonNeedsCustomPadding(config)) {
             if (landscape && !BaseNavigationBar.sIsTablet) {
                 v.setPaddingRelative(appIconPadding[1], appIconPadding[0],
@@ -15,31 +15,28 @@
  * 
  * Heavily modified for TeamEos NX implementation by Randall Rushing aka Bigrushdog
  * 
+ * Ripples live in a small fixed pool of slots advanced by one frame
+ * callback, so quick taps overlap without allocating, and each frame only
+ * invalidates the area the circles covered
+ * 
  */
 
 package com.android.systemui.navigation.fling;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
-import android.animation.ObjectAnimator;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.util.Property;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.DecelerateInterpolator;
-import android.view.animation.LinearInterpolator;
+import android.view.animation.AnimationUtils;
 
-public class FlingRipple implements View.OnTouchListener {
+public class FlingRipple implements View.OnTouchListener, FlingEffectLayer.Effect {
     private static final int DEFAULT_DURATION = 350;
     private static final int DEFAULT_FADE_DURATION = 75;
     private static final float DEFAULT_DIAMETER_DP = 10;
@@ -52,6 +49,18 @@ public class FlingRipple implements View.OnTouchListener {
     private static final int FADE_EXTRA_DELAY = 50;
     private static final long HOVER_DURATION = 2500;
 
+    // enough for a burst of taps, a new ripple beyond that takes over the oldest
+    private static final int MAX_RIPPLES = 4;
+    private static final int NO_SLOT = -1;
+
+    private static final int STATE_IDLE = 0;
+    // grows linearly under the finger
+    private static final int STATE_HOVER = 1;
+    // released, expands and fades out
+    private static final int STATE_RIPPLE = 2;
+    // released while persistent, expands and stays
+    private static final int STATE_HOLD = 3;
+
     private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Rect bounds = new Rect();
 
@@ -64,16 +73,39 @@ public class FlingRipple implements View.OnTouchListener {
     private int rippleFadeDuration;
     private boolean ripplePersistent;
     private Drawable rippleBackground;
-    private Point currentCoords = new Point();
-    private Point previousCoords = new Point();
-    private AnimatorSet rippleAnimator;
-    private ObjectAnimator hoverAnimator;
-    private float radius;
+    private int currentX;
+    private int currentY;
+
+    // ripple slots, one entry per slot
+    private final int[] mState = new int[MAX_RIPPLES];
+    private final float[] mX = new float[MAX_RIPPLES];
+    private final float[] mY = new float[MAX_RIPPLES];
+    private final float[] mStartRadius = new float[MAX_RIPPLES];
+    private final float[] mEndRadius = new float[MAX_RIPPLES];
+    private final long[] mStartTime = new long[MAX_RIPPLES];
+    private final long[] mDuration = new long[MAX_RIPPLES];
+    private final long[] mFadeDelay = new long[MAX_RIPPLES];
+    private final float[] mRadius = new float[MAX_RIPPLES];
+    private final int[] mAlpha = new int[MAX_RIPPLES];
+    // slot following the finger, if any
+    private int mTouchSlot = NO_SLOT;
+    private boolean mFrameScheduled;
+    private final Rect mDirty = new Rect();
 
     private boolean eventCancelled;
     private boolean mDrawBackground = false;
     private View mHost;
 
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            if (advance(AnimationUtils.currentAnimationTimeMillis())) {
+                scheduleFrame();
+            }
+        }
+    };
+
     public FlingRipple(View v) {
         mHost = v;
         init();
@@ -128,41 +160,41 @@ public class FlingRipple implements View.OnTouchListener {
         final int action = event.getAction();
         boolean isEventInBounds = bounds.contains((int) event.getX(), (int) event.getY());
         if (isEventInBounds) {
-            previousCoords.set(currentCoords.x, currentCoords.y);
-            currentCoords.set((int) event.getX(), (int) event.getY());
+            currentX = (int) event.getX();
+            currentY = (int) event.getY();
         }
         switch (action) {
             case MotionEvent.ACTION_UP:
                 if (isEventInBounds) {
-                    startRipple(null);
+                    startRipple();
                 } else if (!rippleHover) {
-                    setRadius(0);
+                    clearTouchSlot();
                 }
                 break;
             case MotionEvent.ACTION_DOWN:
                 eventCancelled = false;
-                mDrawBackground = true;
+                if (!mDrawBackground) {
+                    mDrawBackground = true;
+                    mHost.invalidate();
+                }
                 if (rippleHover) {
                     startHover();
                 }
                 break;
             case MotionEvent.ACTION_CANCEL:
                 if (rippleHover) {
-                    startRipple(null);
+                    startRipple();
                 }
                 break;
             case MotionEvent.ACTION_MOVE:
                 if (rippleHover) {
                     if (isEventInBounds && !eventCancelled) {
-                        mHost.invalidate();
+                        moveTouchSlot(currentX, currentY);
                     } else if (!isEventInBounds) {
-                        startRipple(null);
+                        startRipple();
                     }
                 }
                 if (!isEventInBounds) {
-                    if (hoverAnimator != null) {
-                        hoverAnimator.cancel();
-                    }
                     eventCancelled = true;
                 }
                 break;
@@ -175,11 +207,20 @@ public class FlingRipple implements View.OnTouchListener {
         rippleBackground.setBounds(bounds);
     }
 
+    @Override
     public void onDraw(Canvas canvas) {
         if (mDrawBackground) {
             rippleBackground.draw(canvas);
         }
-        canvas.drawCircle(currentCoords.x, currentCoords.y, radius, paint);
+        final int alpha = paint.getAlpha();
+        for (int i = 0; i < MAX_RIPPLES; i++) {
+            if (mState[i] == STATE_IDLE || mRadius[i] <= 0f) {
+                continue;
+            }
+            paint.setAlpha(mAlpha[i]);
+            canvas.drawCircle(mX[i], mY[i], mRadius[i], paint);
+        }
+        paint.setAlpha(alpha);
     }
 
     static int getSmallerDimen(int width, int height) {
@@ -195,124 +236,226 @@ public class FlingRipple implements View.OnTouchListener {
                 resources.getDisplayMetrics());
     }
 
-    private void startRipple(final Runnable animationEndRunnable) {
+    private void startRipple() {
         if (eventCancelled)
             return;
 
-        float endRadius = getEndRadius();
-
-        cancelAnimations();
-
-        rippleAnimator = new AnimatorSet();
-        rippleAnimator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                if (!ripplePersistent) {
-                    setRadius(0);
-                    setRippleAlpha(rippleAlpha);
-                }
-                if (animationEndRunnable != null && rippleDelayClick) {
-                    animationEndRunnable.run();
-                }
-                mDrawBackground = false;
-                mHost.invalidate();
-            }
-        });
-
-        ObjectAnimator ripple = ObjectAnimator.ofFloat(this, radiusProperty, radius, endRadius);
-        ripple.setDuration(rippleDuration);
-        ripple.setInterpolator(new DecelerateInterpolator());
-        ObjectAnimator fade = ObjectAnimator.ofInt(this, circleAlphaProperty, rippleAlpha, 0);
-        fade.setDuration(rippleFadeDuration);
-        fade.setInterpolator(new AccelerateInterpolator());
-        fade.setStartDelay(rippleDuration - rippleFadeDuration - FADE_EXTRA_DELAY);
-
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        int slot = mTouchSlot;
+        mTouchSlot = NO_SLOT;
+        if (slot == NO_SLOT) {
+            // no hover to grow from, ripple out of nothing at the touch point
+            slot = obtainSlot();
+            mX[slot] = currentX;
+            mY[slot] = currentY;
+            mRadius[slot] = 0f;
+        }
+        final float endRadius = getEndRadius(mX[slot], mY[slot]);
+        mStartRadius[slot] = mRadius[slot];
+        mEndRadius[slot] = endRadius;
+        mAlpha[slot] = rippleAlpha;
+        mStartTime[slot] = now;
         if (ripplePersistent) {
-            rippleAnimator.play(ripple);
-        } else if (getRadius() > endRadius) {
-            fade.setStartDelay(0);
-            rippleAnimator.play(fade);
+            mState[slot] = STATE_HOLD;
+            mDuration[slot] = rippleDuration;
+        } else if (mRadius[slot] > endRadius) {
+            // already past the end, just fade
+            mState[slot] = STATE_RIPPLE;
+            mEndRadius[slot] = mRadius[slot];
+            mFadeDelay[slot] = 0;
+            mDuration[slot] = rippleFadeDuration;
         } else {
-            rippleAnimator.playTogether(ripple, fade);
+            mState[slot] = STATE_RIPPLE;
+            mDuration[slot] = rippleDuration;
+            mFadeDelay[slot] = rippleDuration - rippleFadeDuration - FADE_EXTRA_DELAY;
         }
-        rippleAnimator.start();
+        scheduleFrame();
     }
 
     private void startHover() {
         if (eventCancelled)
             return;
 
-        if (hoverAnimator != null) {
-            hoverAnimator.cancel();
+        if (mTouchSlot != NO_SLOT) {
+            freeSlot(mTouchSlot);
         }
-        final float radius = (float) (Math.sqrt(Math.pow(mHost.getWidth(), 2)
+        final int slot = obtainSlot();
+        mTouchSlot = slot;
+        mState[slot] = STATE_HOVER;
+        mX[slot] = currentX;
+        mY[slot] = currentY;
+        mStartRadius[slot] = rippleDiameter;
+        mEndRadius[slot] = (float) (Math.sqrt(Math.pow(mHost.getWidth(), 2)
                 + Math.pow(mHost.getHeight(), 2)) * 1.2f);
-        hoverAnimator = ObjectAnimator.ofFloat(this, radiusProperty, rippleDiameter, radius)
-                .setDuration(HOVER_DURATION);
-        hoverAnimator.setInterpolator(new LinearInterpolator());
-        hoverAnimator.start();
+        mRadius[slot] = rippleDiameter;
+        mAlpha[slot] = rippleAlpha;
+        mStartTime[slot] = AnimationUtils.currentAnimationTimeMillis();
+        mDuration[slot] = HOVER_DURATION;
+        scheduleFrame();
     }
 
-    private void cancelAnimations() {
-        if (rippleAnimator != null) {
-            rippleAnimator.cancel();
-            rippleAnimator.removeAllListeners();
+    private void moveTouchSlot(int x, int y) {
+        if (mTouchSlot == NO_SLOT) {
+            return;
         }
+        mDirty.setEmpty();
+        unionSlot(mTouchSlot);
+        mX[mTouchSlot] = x;
+        mY[mTouchSlot] = y;
+        unionSlot(mTouchSlot);
+        invalidateDirty();
+    }
 
-        if (hoverAnimator != null) {
-            hoverAnimator.cancel();
+    private void clearTouchSlot() {
+        if (mTouchSlot == NO_SLOT) {
+            return;
+        }
+        mDirty.setEmpty();
+        unionSlot(mTouchSlot);
+        freeSlot(mTouchSlot);
+        mTouchSlot = NO_SLOT;
+        invalidateDirty();
+        if (!isAnySlotActive()) {
+            hideBackground();
         }
     }
 
-    private float getEndRadius() {
-        final int width = mHost.getWidth();
-        final int height = mHost.getHeight();
-
-        final int halfWidth = width / 2;
-        final int halfHeight = height / 2;
+    private int obtainSlot() {
+        int oldest = 0;
+        for (int i = 0; i < MAX_RIPPLES; i++) {
+            if (mState[i] == STATE_IDLE) {
+                return i;
+            }
+            if (mStartTime[i] < mStartTime[oldest]) {
+                oldest = i;
+            }
+        }
+        // pool is full, cut the oldest short
+        mDirty.setEmpty();
+        unionSlot(oldest);
+        invalidateDirty();
+        freeSlot(oldest);
+        return oldest;
+    }
 
-        final float radiusX = halfWidth > currentCoords.x ? width - currentCoords.x
-                : currentCoords.x;
-        final float radiusY = halfHeight > currentCoords.y ? height - currentCoords.y
-                : currentCoords.y;
+    private void freeSlot(int slot) {
+        mState[slot] = STATE_IDLE;
+        mRadius[slot] = 0f;
+    }
 
-        return (float) Math.sqrt(Math.pow(radiusX, 2) + Math.pow(radiusY, 2)) * 1.2f;
+    private boolean isAnySlotActive() {
+        for (int i = 0; i < MAX_RIPPLES; i++) {
+            if (mState[i] != STATE_IDLE) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private Property<FlingRipple, Float> radiusProperty = new Property<FlingRipple, Float>(Float.class,
-            "radius") {
-        @Override
-        public Float get(FlingRipple object) {
-            return object.getRadius();
+    private void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
         }
+    }
 
-        @Override
-        public void set(FlingRipple object, Float value) {
-            object.setRadius(value);
+    /**
+     * Step every slot to now and invalidate what moved
+     *
+     * @return true if another frame is needed
+     */
+    private boolean advance(long now) {
+        boolean running = false;
+        boolean finished = false;
+        mDirty.setEmpty();
+        for (int i = 0; i < MAX_RIPPLES; i++) {
+            final int state = mState[i];
+            if (state == STATE_IDLE) {
+                continue;
+            }
+            unionSlot(i);
+            final long elapsed = now - mStartTime[i];
+            final float t = Math.min(1f, Math.max(0f, elapsed / (float) mDuration[i]));
+            if (state == STATE_HOVER) {
+                // linear
+                mRadius[i] = lerp(mStartRadius[i], mEndRadius[i], t);
+                running |= t < 1f;
+            } else {
+                // decelerate
+                final float inv = 1f - t;
+                mRadius[i] = lerp(mStartRadius[i], mEndRadius[i], 1f - inv * inv);
+                if (state == STATE_RIPPLE) {
+                    // accelerate
+                    final float fade = Math.min(1f, Math.max(0f,
+                            (elapsed - mFadeDelay[i]) / (float) rippleFadeDuration));
+                    mAlpha[i] = (int) (rippleAlpha * (1f - fade * fade));
+                }
+                if (t >= 1f && (state == STATE_HOLD || mAlpha[i] == 0)) {
+                    if (state == STATE_RIPPLE) {
+                        freeSlot(i);
+                    }
+                    finished = true;
+                } else {
+                    running = true;
+                }
+            }
+            unionSlot(i);
         }
-    };
+        invalidateDirty();
+        if (finished && !isAnySlotActiveExceptHeld()) {
+            hideBackground();
+        }
+        return running;
+    }
 
-    private float getRadius() {
-        return radius;
+    private boolean isAnySlotActiveExceptHeld() {
+        for (int i = 0; i < MAX_RIPPLES; i++) {
+            if (mState[i] == STATE_HOVER || mState[i] == STATE_RIPPLE) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void setRadius(float radius) {
-        this.radius = radius;
-        mHost.invalidate();
+    private void hideBackground() {
+        if (mDrawBackground) {
+            mDrawBackground = false;
+            mHost.invalidate();
+        }
     }
 
-    private Property<FlingRipple, Integer> circleAlphaProperty = new Property<FlingRipple, Integer>(
-            Integer.class, "rippleAlpha") {
-        @Override
-        public Integer get(FlingRipple object) {
-            return object.getRippleAlpha();
+    private void unionSlot(int slot) {
+        final float r = mRadius[slot];
+        if (r <= 0f) {
+            return;
         }
+        mDirty.union((int) Math.floor(mX[slot] - r) - 1, (int) Math.floor(mY[slot] - r) - 1,
+                (int) Math.ceil(mX[slot] + r) + 1, (int) Math.ceil(mY[slot] + r) + 1);
+    }
 
-        @Override
-        public void set(FlingRipple object, Integer value) {
-            object.setRippleAlpha(value);
+    private void invalidateDirty() {
+        if (mDirty.isEmpty() || !mDirty.intersect(bounds)) {
+            return;
         }
-    };
+        mHost.invalidate(mDirty.left, mDirty.top, mDirty.right, mDirty.bottom);
+    }
+
+    private static float lerp(float start, float end, float fraction) {
+        return start + (end - start) * fraction;
+    }
+
+    private float getEndRadius(float x, float y) {
+        final int width = mHost.getWidth();
+        final int height = mHost.getHeight();
+
+        final int halfWidth = width / 2;
+        final int halfHeight = height / 2;
+
+        final float radiusX = halfWidth > x ? width - x : x;
+        final float radiusY = halfHeight > y ? height - y : y;
+
+        return (float) Math.sqrt(Math.pow(radiusX, 2) + Math.pow(radiusY, 2)) * 1.2f;
+    }
 
     public int getRippleAlpha() {
         return paint.getAlpha();
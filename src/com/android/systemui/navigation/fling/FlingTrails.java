@@ -31,23 +31,53 @@ import com.orange.dgil.trail.android.impl.TrailDrawer;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
 import android.os.SystemProperties;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.WindowManager;
 
-public class FlingTrails implements View.OnTouchListener, IAnimListener {
+public class FlingTrails implements View.OnTouchListener, IAnimListener,
+        TrailPointFilter.PointSink, FlingEffectLayer.Effect {
     public static final String TAG = FlingTrails.class.getSimpleName();
     public static final int TRAIL_WIDTH_DEFAULT = 15;
+    public static final String FLING_TRAILS_PREDICT_URI = "fling_trails_predict";
 
     private static final int ANIM_DELAY = 100;
     private static final int ANIM_DURATION = 400;
     // trail width constraints, in density pixels
     private static final int TRAIL_WIDTH_MIN = 1;
     private static final int TRAIL_WIDTH_MAX = 25;
+    // point thinning, in density pixels
+    private static final float POINT_SPACING = 2f;
+    private static final float POINT_TOLERANCE = 0.75f;
+    // furthest the predicted tail may run ahead of the finger, in density pixels
+    private static final float PREDICT_MAX_DISTANCE = 16f;
+    // shadow under the predicted tail, to sit with the trail's own
+    private static final int PREDICT_SHADOW_COLOR = 0x40000000;
+    private static final float PREDICT_SHADOW_SPREAD = 1f;
     private TrailDrawer mTrailDrawer;
     private boolean mEnabled;
     private View mHost;
     private int mTrailColor = Color.WHITE;
+    private TrailPointFilter mPointFilter;
+    private TrailPredictor mPredictor;
+    private boolean mPredictEnabled;
+    private boolean mHasPrediction;
+    private float mFrameInterval;
+    private int mLastPointX;
+    private int mLastPointY;
+    // predicted tail runs from the last emitted point to the guess
+    private float mPredictX;
+    private float mPredictY;
+    private float mShadowSpread;
+    private final Paint mPredictPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mPredictShadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // fades along a unit segment, mapped onto the tail each move
+    private final Matrix mFadeMatrix = new Matrix();
 
     public FlingTrails(View v) {
         mHost = v;
@@ -60,6 +90,22 @@ public class FlingTrails implements View.OnTouchListener, IAnimListener {
         mTrailDrawer.getAnimationParameters().setColorProperties(mTrailColor, mTrailColor);
         mTrailDrawer.getAnimationParameters().setColorForAlphaAnimation(mTrailColor);
         mTrailDrawer.setAnimationListener(this);
+        final float density = v.getContext().getResources().getDisplayMetrics().density;
+        mPointFilter = new TrailPointFilter(this, POINT_SPACING * density,
+                POINT_TOLERANCE * density);
+        mPredictor = new TrailPredictor(PREDICT_MAX_DISTANCE * density);
+        final WindowManager wm = (WindowManager) v.getContext()
+                .getSystemService(Context.WINDOW_SERVICE);
+        final float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+        mFrameInterval = 1000f / (refreshRate > 0f ? refreshRate : 60f);
+        mShadowSpread = PREDICT_SHADOW_SPREAD * density;
+        mPredictPaint.setStyle(Paint.Style.STROKE);
+        mPredictPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPredictShadowPaint.setStyle(Paint.Style.STROKE);
+        mPredictShadowPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPredictShadowPaint.setShader(newFade(PREDICT_SHADOW_COLOR));
+        mPredictPaint.setShader(newFade(mTrailColor));
+        setPredictWidth(TRAIL_WIDTH_DEFAULT * density);
     }
 
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
@@ -79,9 +125,17 @@ public class FlingTrails implements View.OnTouchListener, IAnimListener {
         }
     }
 
+    public void setPredictionEnabled(boolean enabled) {
+        if (mPredictEnabled != enabled) {
+            mPredictEnabled = enabled;
+            clearPrediction();
+        }
+    }
+
     public void setTrailColor(int color) {
         if (mTrailColor != color) {
             mTrailColor = color;
+            mPredictPaint.setShader(newFade(color));
             mTrailDrawer.getTrailOptions().setColor(color);
             mTrailDrawer.getAnimationParameters().setColorProperties(color, color);
             mTrailDrawer.getAnimationParameters().setColorForAlphaAnimation(color);
@@ -92,12 +146,20 @@ public class FlingTrails implements View.OnTouchListener, IAnimListener {
         mTrailDrawer.clear();
         int px = DUActionUtils.ConvertDpToPixelAsInt(validateTrailWidthRange(dp), mHost.getContext());
         int microns = AndroidMetrics.get(mHost.getContext()).pixelsToMicrometers(px);
+        setPredictWidth(px);
         mTrailDrawer.getTrailOptions().setTrailWidthMicrometers(microns);
     }
 
+    @Override
     public void onDraw(Canvas canvas) {
         if (mEnabled) {
             mTrailDrawer.draw(canvas);
+            if (mHasPrediction) {
+                canvas.drawLine(mLastPointX, mLastPointY, mPredictX, mPredictY,
+                        mPredictShadowPaint);
+                canvas.drawLine(mLastPointX, mLastPointY, mPredictX, mPredictY,
+                        mPredictPaint);
+            }
         }
     }
 
@@ -112,30 +174,89 @@ public class FlingTrails implements View.OnTouchListener, IAnimListener {
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 mTrailDrawer.touchDown((int) event.getX(), (int) event.getY());
+                mPointFilter.start(event.getX(), event.getY());
+                mLastPointX = (int) event.getX();
+                mLastPointY = (int) event.getY();
+                mPredictor.reset();
+                mPredictor.add(event.getX(), event.getY(), event.getEventTime());
                 break;
             case MotionEvent.ACTION_MOVE:
-                int oldestPoint = event.getHistorySize() - 25;
-                if (oldestPoint < 0) {
-                    oldestPoint = 0;
-                }
-                for (int i = oldestPoint; i < event.getHistorySize(); i++) {
-                    onMove(event.getHistoricalX(i), event.getHistoricalY(i));
+                // history is thinned, the newest sample always reaches the drawer
+                final int historySize = event.getHistorySize();
+                for (int i = 0; i < historySize; i++) {
+                    mPointFilter.add(event.getHistoricalX(i), event.getHistoricalY(i));
+                    mPredictor.add(event.getHistoricalX(i), event.getHistoricalY(i),
+                            event.getHistoricalEventTime(i));
                 }
-                onMove(event.getX(), event.getY());
+                mPointFilter.addLatest(event.getX(), event.getY());
+                mPredictor.add(event.getX(), event.getY(), event.getEventTime());
+                updatePrediction();
                 break;
             case MotionEvent.ACTION_UP:
+                clearPrediction();
+                mPointFilter.addLatest(event.getX(), event.getY());
+                mPointFilter.flush();
                 mTrailDrawer.touchUp();
                 mTrailDrawer.animate();
                 break;
             default:
+                clearPrediction();
+                mPointFilter.flush();
                 mTrailDrawer.touchCancel();
                 mTrailDrawer.animate();
         }
         return false;
     }
 
-    private void onMove(float x, float y) {
-        mTrailDrawer.touchMove((int) x, (int) y);
+    @Override
+    public void onPoint(int x, int y) {
+        mLastPointX = x;
+        mLastPointY = y;
+        mTrailDrawer.touchMove(x, y);
+    }
+
+    // the tail is rebuilt on every move, so real samples always replace the guess
+    private void updatePrediction() {
+        if (!mPredictEnabled || !mPredictor.predict(mFrameInterval)) {
+            clearPrediction();
+            return;
+        }
+        // run ahead from what the drawer has, never from points it hasn't seen
+        final float dx = mPredictor.getDx();
+        final float dy = mPredictor.getDy();
+        final float length = (float) Math.hypot(dx, dy);
+        if (length < 1f) {
+            clearPrediction();
+            return;
+        }
+        mPredictX = mLastPointX + dx;
+        mPredictY = mLastPointY + dy;
+        // full trail color at the real end, gone by the tip of the guess
+        mFadeMatrix.setScale(length, length);
+        mFadeMatrix.postRotate((float) Math.toDegrees(Math.atan2(dy, dx)));
+        mFadeMatrix.postTranslate(mLastPointX, mLastPointY);
+        mPredictPaint.getShader().setLocalMatrix(mFadeMatrix);
+        mPredictShadowPaint.getShader().setLocalMatrix(mFadeMatrix);
+        mHasPrediction = true;
+        mHost.invalidate();
+    }
+
+    private void clearPrediction() {
+        if (mHasPrediction) {
+            mHasPrediction = false;
+            mHost.invalidate();
+        }
+    }
+
+    // same width as the trail, the shadow spreads a little past it
+    private void setPredictWidth(float px) {
+        mPredictPaint.setStrokeWidth(px);
+        mPredictShadowPaint.setStrokeWidth(px + mShadowSpread * 2f);
+    }
+
+    private static Shader newFade(int color) {
+        return new LinearGradient(0f, 0f, 1f, 0f, color, color & 0x00ffffff,
+                Shader.TileMode.CLAMP);
     }
 
     private static int validateTrailWidthRange(int dp) {
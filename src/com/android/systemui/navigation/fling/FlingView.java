@@ -22,6 +22,13 @@
 
 package com.android.systemui.navigation.fling;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -30,6 +37,7 @@ import com.android.systemui.navigation.BaseNavigationBar;
 import com.android.systemui.navigation.NavigationController.NavbarOverlayResources;
 import com.android.systemui.navigation.fling.FlingActionHandler;
 import com.android.systemui.navigation.fling.FlingBarTransitions;
+import com.android.systemui.navigation.fling.FlingEffectLayer;
 import com.android.systemui.navigation.fling.FlingGestureDetector;
 import com.android.systemui.navigation.fling.FlingGestureHandler;
 import com.android.systemui.navigation.fling.FlingLogoController;
@@ -38,17 +46,21 @@ import com.android.systemui.navigation.fling.FlingRipple;
 import com.android.systemui.navigation.fling.FlingTrails;
 import com.android.systemui.navigation.fling.FlingView;
 import com.android.systemui.navigation.utils.SmartObserver.SmartObservable;
+import com.android.systemui.navigation.utils.TapTimingModel;
 import com.android.systemui.statusbar.phone.BarTransitions;
 import com.android.systemui.statusbar.phone.PhoneStatusBar;
 import com.android.internal.utils.du.ActionConstants;
+import com.android.internal.utils.du.DUActionUtils;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.graphics.Canvas;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.PowerManager;
+import android.os.Process;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.AttributeSet;
@@ -72,6 +84,8 @@ public class FlingView extends BaseNavigationBar {
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.FLING_TRAILS_ENABLED));
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.FLING_TRAILS_COLOR));
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.FLING_TRAILS_WIDTH));
+        sUris.add(Settings.Secure.getUriFor(FlingTrails.FLING_TRAILS_PREDICT_URI));
+        sUris.add(Settings.Secure.getUriFor(TapTimingModel.NAVBAR_ADAPTIVE_TIMING_URI));
     }
 
     private FlingActionHandler mActionHandler;
@@ -83,6 +97,13 @@ public class FlingView extends BaseNavigationBar {
     private PowerManager mPm;
     private FlingRipple mRipple;
     private FlingTrails mTrails;
+    private FlingEffectLayer mRippleLayer;
+    private FlingEffectLayer mTrailsLayer;
+    // touch recording for the replay tests, started and saved from dump
+    private TouchTrace mTrace;
+    // replays and writes saved traces off the UI thread, started on first save
+    private HandlerThread mTraceThread;
+    private Handler mTraceHandler;
 
     private SmartObservable mObservable = new SmartObservable() {
         @Override
@@ -103,15 +124,23 @@ public class FlingView extends BaseNavigationBar {
         // no less than 25ms longer than single tap timeout
         static final int LP_TIMEOUT_MIN = 100;
         private int mLongPressTimeout = LP_TIMEOUT;
+        private final TapTimingModel mTimingModel;
 
-        public FlingGestureDetectorPriv(Context context, OnGestureListener listener) {
+        public FlingGestureDetectorPriv(Context context, OnGestureListener listener,
+                TapTimingModel timingModel) {
             super(context, listener, null);
-            // TODO Auto-generated constructor stub
+            mTimingModel = timingModel;
         }
 
         @Override
         protected int getLongPressTimeout() {
-            return mLongPressTimeout;
+            return mTimingModel.getLongPressTimeout(mLongPressTimeout);
+        }
+
+        @Override
+        protected void onLongPressUp(long heldMillis) {
+            // taps are timed down to up, so the default window here includes the tap timeout
+            mTimingModel.onLongPressUp(heldMillis, getTapTimeout() + mLongPressTimeout);
         }
 
         void setLongPressTimeout(int timeoutFactor) {
@@ -144,6 +173,15 @@ public class FlingView extends BaseNavigationBar {
             if (mTrails.isEnabled()) {
                 mTrails.onTouch(FlingView.this, event);
             }
+            // start on a down so the trace never opens mid gesture
+            if (mTrace != null && (action == MotionEvent.ACTION_DOWN
+                    || mTrace.getEventCount() > 0)) {
+                mTrace.add(event);
+                if (mTrace.isFull()) {
+                    Log.i(TAG, "Fling trace full, saving");
+                    saveTrace();
+                }
+            }
             return mGestureDetector.onTouchEvent(event);
         }
     };
@@ -152,15 +190,24 @@ public class FlingView extends BaseNavigationBar {
         super(context, attrs);
         mBarTransitions = new FlingBarTransitions(this);
         mActionHandler = new FlingActionHandler(context, this);
+        mActionHandler.setLatencyTracker(mLatencyTracker);
         mGestureHandler = new FlingGestureHandler(context, mActionHandler, this, BaseNavigationBar.sIsTablet);
-        mGestureDetector = new FlingGestureDetectorPriv(context, mGestureHandler);
+        mGestureHandler.setTimingModel(mTapTimingModel);
+        mGestureDetector = new FlingGestureDetectorPriv(context, mGestureHandler,
+                mTapTimingModel);
+        mGestureDetector.setOnScrubListener(mGestureHandler);
         setOnTouchListener(mFlingTouchListener);
 
         // CM bases: turn this on for an extra bump ;D
         //mPm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
 
-        mRipple = new FlingRipple(this);
-        mTrails = new FlingTrails(this);
+        // each effect invalidates its own overlay, not the whole bar
+        mRippleLayer = new FlingEffectLayer(context);
+        mTrailsLayer = new FlingEffectLayer(context);
+        mRipple = new FlingRipple(mRippleLayer);
+        mTrails = new FlingTrails(mTrailsLayer);
+        mRippleLayer.setEffect(mRipple);
+        mTrailsLayer.setEffect(mTrails);
         mLogoController = new FlingLogoController(this);
 
         mSmartObserver.addListener(mActionHandler);
@@ -231,7 +278,7 @@ public class FlingView extends BaseNavigationBar {
     @Override
     public void setResourceMap(NavbarOverlayResources resourceMap) {
         super.setResourceMap(resourceMap);
-        mLogoController.setLogoIcon();
+        mLogoController.reloadLogoIcon();
         updateFlingSettings();
     }
 
@@ -245,6 +292,7 @@ public class FlingView extends BaseNavigationBar {
         boolean enabled = Settings.Secure.getIntForUser(mContext.getContentResolver(),
                 Settings.Secure.FLING_TRAILS_ENABLED, 1, UserHandle.USER_CURRENT) == 1;
         mTrails.setTrailsEnabled(enabled);
+        mTrailsLayer.setEffectEnabled(enabled);
     }
 
     private void updateTrailsColor() {
@@ -260,11 +308,17 @@ public class FlingView extends BaseNavigationBar {
         mTrails.setTrailWidth(width);
     }
 
+    private void updateTrailsPrediction() {
+        boolean enabled = Settings.Secure.getIntForUser(mContext.getContentResolver(),
+                FlingTrails.FLING_TRAILS_PREDICT_URI, 0, UserHandle.USER_CURRENT) == 1;
+        mTrails.setPredictionEnabled(enabled);
+    }
+
     @Override
     public void updateNavbarThemedResources(Resources res) {
 //        mRipple.updateResources(res);
         super.updateNavbarThemedResources(res);
-        mLogoController.setLogoIcon();
+        mLogoController.reloadLogoIcon();
     }
 
     private void updateFlingSettings() {
@@ -272,22 +326,34 @@ public class FlingView extends BaseNavigationBar {
         updateTrailsEnabled();
         updateTrailsColor();
         updateTrailsWidth();
+        updateTrailsPrediction();
         int lpTimeout = Settings.Secure.getIntForUser(mContext.getContentResolver(),
                 Settings.Secure.FLING_LONGPRESS_TIMEOUT, FlingGestureDetectorPriv.LP_TIMEOUT_MAX, UserHandle.USER_CURRENT);
         mGestureDetector.setLongPressTimeout(lpTimeout);
+        updateAdaptiveTimingSetting();
         mRippleEnabled = Settings.Secure.getIntForUser(mContext.getContentResolver(),
-                Settings.Secure.FLING_RIPPLE_ENABLED, 1, UserHandle.USER_CURRENT) == 1;  
+                Settings.Secure.FLING_RIPPLE_ENABLED, 1, UserHandle.USER_CURRENT) == 1;
+        mRippleLayer.setEffectEnabled(mRippleEnabled);
     }
 
     @Override
     public void reorient() {
         super.reorient();
+        attachEffectLayers();
         mBarTransitions.init();
         mLogoController.setLogoView(getFlingLogo());
         mLogoController.setLogoIcon();
         setDisabledFlags(mDisabledFlags, true /* force */);
     }
 
+    // ripple then trails, stacked over Pulse and under the logo
+    private void attachEffectLayers() {
+        final ViewGroup frame = (ViewGroup) mCurrentView;
+        final int index = mPulseLayer != null && mPulseLayer.getParent() == frame ? 1 : 0;
+        mRippleLayer.attachTo(frame, index);
+        mTrailsLayer.attachTo(frame, index + 1);
+    }
+
     @Override
     public void notifyScreenOn(boolean screenOn) {
         mGestureHandler.onScreenStateChanged(screenOn);
@@ -304,6 +370,7 @@ public class FlingView extends BaseNavigationBar {
         super.onSizeChanged(w, h, oldw, oldh);
         mRipple.onSizeChanged(w, h, oldw, oldh);
         mTrails.onSizeChanged(w, h, oldw, oldh);
+        mGestureHandler.onSizeChanged(w, h, oldw, oldh);
     }
 
     @Override
@@ -311,18 +378,93 @@ public class FlingView extends BaseNavigationBar {
         // maybe do something with the IME switcher
     }
 
+    private final Runnable mStartTrace = new Runnable() {
+        @Override
+        public void run() {
+            mTrace = new TouchTrace(getWidth(), getHeight(),
+                    getResources().getDisplayMetrics().densityDpi,
+                    DUActionUtils.isLandscape(mContext), mLeftInLandscape,
+                    mGestureDetector.getLongPressTimeout());
+            mGestureHandler.writeSettings(mTrace);
+        }
+    };
+
+    private final Runnable mSaveTrace = new Runnable() {
+        @Override
+        public void run() {
+            saveTrace();
+        }
+    };
+
+    // recording stops and the trace belongs to the save thread from here
+    private void saveTrace() {
+        if (mTrace == null) {
+            return;
+        }
+        final TouchTrace trace = mTrace;
+        mTrace = null;
+        if (mTraceThread == null) {
+            // replays make Handlers, so a thread with a Looper
+            mTraceThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mTraceThread.start();
+            mTraceHandler = new Handler(mTraceThread.getLooper());
+        }
+        mTraceHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                writeTrace(trace);
+            }
+        });
+    }
+
+    private void writeTrace(TouchTrace trace) {
+        // what the recognizer makes of it now is the golden output
+        new TraceReplayer(mContext).recordExpected(trace);
+        final File file = new File(mContext.getFilesDir(),
+                "fling-" + System.currentTimeMillis() + ".trace");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            trace.write(out);
+            Log.i(TAG, "Saved Fling trace " + file + " " + trace.getExpectedCount()
+                    + " gestures");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save Fling trace " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
     @Override
-    public void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-        if (mRippleEnabled) {
-            mRipple.onDraw(canvas);
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        super.dump(fd, pw, args);
+        if (args == null) {
+            return;
         }
-        if (mTrails.isEnabled()) {
-            mTrails.onDraw(canvas);
+        // touches are only seen on the UI thread, start and stop there too
+        for (String arg : args) {
+            if (TouchTrace.DUMP_ARG_RECORD.equals(arg)) {
+                post(mStartTrace);
+                pw.println("    Fling trace recording");
+            } else if (TouchTrace.DUMP_ARG_SAVE.equals(arg)) {
+                post(mSaveTrace);
+                pw.println("    Fling trace saving to " + mContext.getFilesDir());
+            }
         }
     }
 
     @Override
     protected void onDispose() {
+        if (mTraceThread != null) {
+            // let a save in progress finish
+            mTraceThread.quitSafely();
+            mTraceThread = null;
+            mTraceHandler = null;
+        }
     }
 }
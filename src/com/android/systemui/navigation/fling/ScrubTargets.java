@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * What a Fling scrub adjusts. A held press scrubs when the long press on
+ * that side is bound to an action with a stepped counterpart: the volume
+ * panel steps music volume, media next and previous seek the active
+ * session. Each target applies a whole coalesced delta in one go and runs
+ * on the action worker. Seeking is anchored where the scrub started, read
+ * on the worker too, so a late playback state can't shift where the steps
+ * land and the touch thread never waits on a media session
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import java.util.List;
+
+import com.android.systemui.navigation.utils.ActionExecutor.StepTarget;
+import com.android.internal.utils.du.ActionHandler;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.session.MediaController;
+import android.media.session.MediaSessionManager;
+import android.media.session.PlaybackState;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+final class ScrubTargets {
+    // media position moved per step
+    private static final long SEEK_STEP_MS = 5000;
+
+    private final StepTarget mVolume;
+    private final StepTarget mSeek;
+
+    ScrubTargets(Context context) {
+        mVolume = new VolumeTarget(context);
+        mSeek = new SeekTarget(context);
+    }
+
+    /**
+     * @return the target stepped in place of the action, or null if it has none
+     */
+    StepTarget forAction(String action) {
+        if (TextUtils.equals(action, ActionHandler.SYSTEMUI_TASK_VOLUME_PANEL)) {
+            return mVolume;
+        } else if (TextUtils.equals(action, ActionHandler.SYSTEMUI_TASK_MEDIA_NEXT)
+                || TextUtils.equals(action, ActionHandler.SYSTEMUI_TASK_MEDIA_PREVIOUS)) {
+            return mSeek;
+        }
+        return null;
+    }
+
+    private static final class VolumeTarget implements StepTarget {
+        private final AudioManager mAudioManager;
+
+        VolumeTarget(Context context) {
+            mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        }
+
+        @Override
+        public void onStepsStart() {
+            // volume is read back as it's set, each step starts from the real level
+        }
+
+        @Override
+        public void onSteps(int delta) {
+            final int stream = AudioManager.STREAM_MUSIC;
+            final int max = mAudioManager.getStreamMaxVolume(stream);
+            final int current = mAudioManager.getStreamVolume(stream);
+            final int volume = Math.max(0, Math.min(max, current + delta));
+            if (volume != current) {
+                mAudioManager.setStreamVolume(stream, volume, AudioManager.FLAG_SHOW_UI);
+            }
+        }
+    }
+
+    private static final class SeekTarget implements StepTarget {
+        private final MediaSessionManager mSessionManager;
+        // session and position the scrub started from, worker only
+        private MediaController mController;
+        private long mStartPosition;
+        private int mTotalSteps;
+
+        SeekTarget(Context context) {
+            mSessionManager = (MediaSessionManager) context
+                    .getSystemService(Context.MEDIA_SESSION_SERVICE);
+        }
+
+        @Override
+        public void onStepsStart() {
+            mController = null;
+            mTotalSteps = 0;
+            final MediaController controller = getActiveController();
+            if (controller == null) {
+                return;
+            }
+            final PlaybackState state = controller.getPlaybackState();
+            if (state == null || (state.getActions() & PlaybackState.ACTION_SEEK_TO) == 0) {
+                return;
+            }
+            long position = state.getPosition();
+            if (state.getState() == PlaybackState.STATE_PLAYING) {
+                // the reported position is as of the last update, carry it forward
+                position += (long) ((SystemClock.elapsedRealtime()
+                        - state.getLastPositionUpdateTime()) * state.getPlaybackSpeed());
+            }
+            mController = controller;
+            mStartPosition = position;
+        }
+
+        @Override
+        public void onSteps(int delta) {
+            if (mController == null) {
+                return;
+            }
+            // every seek is from the start, a stale state after the last seek changes nothing
+            mTotalSteps += delta;
+            mController.getTransportControls().seekTo(Math.max(0, mStartPosition
+                    + mTotalSteps * SEEK_STEP_MS));
+        }
+
+        // the playing session if there is one, else the most recent
+        private MediaController getActiveController() {
+            final List<MediaController> sessions = mSessionManager.getActiveSessions(null);
+            if (sessions == null || sessions.isEmpty()) {
+                return null;
+            }
+            for (MediaController controller : sessions) {
+                final PlaybackState state = controller.getPlaybackState();
+                if (state != null && state.getState() == PlaybackState.STATE_PLAYING) {
+                    return controller;
+                }
+            }
+            return sessions.get(0);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Turns a fling's start and end points into a FlingGesture. Bar geometry,
+ * orientation and long swipe thresholds are folded into a small table
+ * whenever they change, so classifying is a handful of compares. No
+ * Android dependencies, feed it synthetic coordinates to exercise it
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+public class SwipeClassifier {
+    // minimum amount of the bar's short side to cover for an up swipe
+    static final float VERTICAL_SWIPE_THRESHOLD = 0.80f;
+    // up swipes may lean at most 30 degrees off the short axis: tan(30)^2 = 1/3
+    static final float VERTICAL_SWIPE_SLOPE_SQUARED = 1f / 3f;
+    // a swipe in progress counts as a short swipe once past this much of the bar
+    static final float EARLY_SWIPE_THRESHOLD = 0.10f;
+
+    private static final int NEGATIVE = 0;
+    private static final int POSITIVE = 1;
+
+    // inputs
+    private int mWidth;
+    private int mHeight;
+    private boolean mIsLandscape;
+    private boolean mLeftInLandscape;
+    private float mLeftLand;
+    private float mRightLand;
+    private float mLeftPort;
+    private float mRightPort;
+    private float mUpVert;
+    private float mDownVert;
+
+    // table
+    private boolean mHorizontal;
+    private float mHalfLength;
+    private float mUpMinDistance;
+    private float mEarlySwipeDistance;
+    // sign of short axis travel that reads as "up", toward the screen content
+    private float mUpSign;
+    // indexed by sign of long axis travel
+    private final FlingGesture[] mShortSwipe = new FlingGesture[2];
+    private final FlingGesture[] mLongSwipe = new FlingGesture[2];
+    private final float[] mLongSwipeDistance = new float[2];
+    private boolean mValid;
+
+    /**
+     * @param width bar width in pixels
+     * @param height bar height in pixels
+     * @param isLandscape device orientation
+     * @param leftInLandscape vertical bar sits on the left edge
+     */
+    public void setGeometry(int width, int height, boolean isLandscape,
+            boolean leftInLandscape) {
+        if (mWidth == width && mHeight == height && mIsLandscape == isLandscape
+                && mLeftInLandscape == leftInLandscape) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mIsLandscape = isLandscape;
+        mLeftInLandscape = leftInLandscape;
+        rebuild();
+    }
+
+    /**
+     * Long swipe thresholds as a fraction of the bar's long side
+     */
+    public void setThresholds(float leftLand, float rightLand, float leftPort, float rightPort,
+            float upVert, float downVert) {
+        mLeftLand = leftLand;
+        mRightLand = rightLand;
+        mLeftPort = leftPort;
+        mRightPort = rightPort;
+        mUpVert = upVert;
+        mDownVert = downVert;
+        rebuild();
+    }
+
+    private void rebuild() {
+        mValid = mWidth > 0 && mHeight > 0;
+        if (!mValid) {
+            return;
+        }
+        mHorizontal = mWidth > mHeight;
+        final float longSide = mHorizontal ? mWidth : mHeight;
+        final float shortSide = mHorizontal ? mHeight : mWidth;
+        mHalfLength = longSide / 2f;
+        mUpMinDistance = VERTICAL_SWIPE_THRESHOLD * shortSide;
+        mEarlySwipeDistance = EARLY_SWIPE_THRESHOLD * longSide;
+        // toward the content: up on a horizontal bar, away from the edge on a vertical one
+        mUpSign = (!mHorizontal && mLeftInLandscape) ? 1f : -1f;
+
+        float negativeThreshold;
+        float positiveThreshold;
+        if (mIsLandscape && !mHorizontal) {
+            // vertical bar on phones, travel down the bar is "left"
+            mShortSwipe[POSITIVE] = FlingGesture.SHORT_LEFT_SWIPE;
+            mLongSwipe[POSITIVE] = FlingGesture.LONG_LEFT_SWIPE;
+            mShortSwipe[NEGATIVE] = FlingGesture.SHORT_RIGHT_SWIPE;
+            mLongSwipe[NEGATIVE] = FlingGesture.LONG_RIGHT_SWIPE;
+            positiveThreshold = mDownVert;
+            negativeThreshold = mUpVert;
+        } else {
+            mShortSwipe[POSITIVE] = FlingGesture.SHORT_RIGHT_SWIPE;
+            mLongSwipe[POSITIVE] = FlingGesture.LONG_RIGHT_SWIPE;
+            mShortSwipe[NEGATIVE] = FlingGesture.SHORT_LEFT_SWIPE;
+            mLongSwipe[NEGATIVE] = FlingGesture.LONG_LEFT_SWIPE;
+            positiveThreshold = mIsLandscape ? mRightLand : mRightPort;
+            negativeThreshold = mIsLandscape ? mLeftLand : mLeftPort;
+        }
+        mLongSwipeDistance[POSITIVE] = positiveThreshold * longSide;
+        mLongSwipeDistance[NEGATIVE] = negativeThreshold * longSide;
+    }
+
+    /**
+     * @return true if the point is on the bar's right half, the top half of a vertical bar
+     */
+    public boolean isRightSide(float x, float y) {
+        return mHorizontal ? x > mHalfLength : y < mHalfLength;
+    }
+
+    /**
+     * @return signed travel along the bar, positive toward its right end, the top of a
+     *         vertical bar
+     */
+    public float getLongAxisTravel(float xStart, float yStart, float x, float y) {
+        return mHorizontal ? x - xStart : yStart - y;
+    }
+
+    /**
+     * @return the swipe gesture, or null if geometry isn't known yet
+     */
+    public FlingGesture classify(float xStart, float yStart, float xEnd, float yEnd) {
+        if (!mValid) {
+            return null;
+        }
+        final float longDist = mHorizontal ? xEnd - xStart : yEnd - yStart;
+        final float shortDist = mHorizontal ? yEnd - yStart : xEnd - xStart;
+
+        // far enough across the bar, toward the content, and not too slanted
+        if (shortDist * mUpSign >= mUpMinDistance
+                && longDist * longDist <= VERTICAL_SWIPE_SLOPE_SQUARED * shortDist * shortDist) {
+            return isRightSide(xStart, yStart)
+                    ? FlingGesture.UP_RIGHT_SWIPE
+                    : FlingGesture.UP_LEFT_SWIPE;
+        }
+
+        final int side = longDist >= 0 ? POSITIVE : NEGATIVE;
+        return Math.abs(longDist) > mLongSwipeDistance[side]
+                ? mLongSwipe[side]
+                : mShortSwipe[side];
+    }
+
+    /**
+     * Streaming check while the finger is still down
+     *
+     * @param vx current x velocity in pixels per second
+     * @param vy current y velocity in pixels per second
+     * @param minVelocity slowest long axis speed that still counts as flinging
+     * @return the side swipe this gesture can no longer get out of, or null
+     *         while it could still turn into something else. A short swipe
+     *         may yet become long, callers decide if that matters
+     */
+    public FlingGesture classifyInProgress(float xStart, float yStart, float x, float y,
+            float vx, float vy, float minVelocity) {
+        if (!mValid) {
+            return null;
+        }
+        final float longDist = mHorizontal ? x - xStart : y - yStart;
+        final float shortDist = mHorizontal ? y - yStart : x - xStart;
+        final float longVelocity = mHorizontal ? vx : vy;
+
+        // within 30 degrees of the long axis and not yet far enough across to be an up swipe
+        if (shortDist * shortDist > VERTICAL_SWIPE_SLOPE_SQUARED * longDist * longDist
+                || Math.abs(shortDist) >= mUpMinDistance) {
+            return null;
+        }
+        // still travelling the way it has been going
+        if (longVelocity * Math.signum(longDist) < minVelocity) {
+            return null;
+        }
+        final int side = longDist >= 0 ? POSITIVE : NEGATIVE;
+        final float distance = Math.abs(longDist);
+        if (distance > mLongSwipeDistance[side]) {
+            return mLongSwipe[side];
+        } else if (distance >= mEarlySwipeDistance) {
+            return mShortSwipe[side];
+        }
+        return null;
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Recorded Fling touch stream in a compact binary form, for replaying
+ * through the recognizer off a live bar. Holds the bar geometry, density
+ * and recognizer settings it was captured with, every touch event with its
+ * batched history samples, and optionally the gestures the recording is
+ * expected to produce. A replay uses the recorded settings, never the
+ * live ones, so the same trace gives the same gestures on any device
+ *
+ * Layout, big endian:
+ *   int magic "FLTR", short version
+ *   int width, int height, short density dpi, byte flags, short long press timeout
+ *   6 floats long swipe thresholds: left land, right land, left port,
+ *     right port, up vertical, down vertical
+ *   int event count, int sample count, int expected count
+ *   per event: byte masked action, short sample count (history then event)
+ *   per sample: int millis since the first event, float x, float y
+ *   per expected gesture: byte FlingGesture ordinal
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import android.view.MotionEvent;
+
+public class TouchTrace {
+    // bar dump args, FlingView records from the next down until saved or full
+    public static final String DUMP_ARG_RECORD = "record-fling-trace";
+    public static final String DUMP_ARG_SAVE = "save-fling-trace";
+
+    // recording stops here, a few minutes of steady touch at 12 bytes a sample
+    public static final int MAX_SAMPLES = 30000;
+
+    private static final int MAGIC = 0x464C5452;
+    private static final short VERSION = 3;
+    // same layout, version 2 just had no same action flags
+    private static final short MIN_VERSION = 2;
+    private static final int FLAG_LANDSCAPE = 1 << 0;
+    private static final int FLAG_LEFT_IN_LANDSCAPE = 1 << 1;
+    private static final int FLAG_EARLY_SWIPE = 1 << 2;
+    private static final int FLAG_SCRUB = 1 << 3;
+    private static final int FLAG_DOUBLE_TAP_LEFT = 1 << 4;
+    private static final int FLAG_DOUBLE_TAP_RIGHT = 1 << 5;
+    private static final int FLAG_SAME_SWIPE_LEFT = 1 << 6;
+    private static final int FLAG_SAME_SWIPE_RIGHT = 1 << 7;
+    private static final int THRESHOLD_COUNT = 6;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int mWidth;
+    private int mHeight;
+    private int mDensityDpi;
+    private boolean mIsLandscape;
+    private boolean mLeftInLandscape;
+    private int mLongPressTimeout;
+
+    // recognizer settings in effect while recording
+    private final float[] mThresholds = new float[THRESHOLD_COUNT];
+    private boolean mEarlySwipeEnabled;
+    private boolean mScrubEnabled;
+    private boolean mDoubleTapLeftEnabled;
+    private boolean mDoubleTapRightEnabled;
+    // short and long swipe that way were bound to the same action
+    private boolean mSameSwipeLeft;
+    private boolean mSameSwipeRight;
+
+    // events, each owning a run of samples starting at mFirstSample
+    private int mEventCount;
+    private byte[] mActions = new byte[INITIAL_CAPACITY];
+    private int[] mFirstSample = new int[INITIAL_CAPACITY];
+
+    private int mSampleCount;
+    private int[] mTimes = new int[INITIAL_CAPACITY];
+    private float[] mXs = new float[INITIAL_CAPACITY];
+    private float[] mYs = new float[INITIAL_CAPACITY];
+    private long mBaseTime = -1;
+
+    private int mExpectedCount;
+    private byte[] mExpected = new byte[INITIAL_CAPACITY];
+
+    public TouchTrace(int width, int height, int densityDpi, boolean isLandscape,
+            boolean leftInLandscape, int longPressTimeout) {
+        mWidth = width;
+        mHeight = height;
+        mDensityDpi = densityDpi;
+        mIsLandscape = isLandscape;
+        mLeftInLandscape = leftInLandscape;
+        mLongPressTimeout = longPressTimeout;
+    }
+
+    /**
+     * Append an event and its batched history. Only the first pointer is kept
+     */
+    public void add(MotionEvent ev) {
+        if (mBaseTime < 0) {
+            mBaseTime = ev.getEventTime();
+        }
+        ensureEventCapacity();
+        mActions[mEventCount] = (byte) ev.getActionMasked();
+        mFirstSample[mEventCount] = mSampleCount;
+        mEventCount++;
+        final int historySize = ev.getHistorySize();
+        for (int i = 0; i < historySize; i++) {
+            addSample(ev.getHistoricalEventTime(i) - mBaseTime,
+                    ev.getHistoricalX(i), ev.getHistoricalY(i));
+        }
+        addSample(ev.getEventTime() - mBaseTime, ev.getX(), ev.getY());
+    }
+
+    /**
+     * Long swipe thresholds as a fraction of the bar's long side
+     */
+    public void setThresholds(float leftLand, float rightLand, float leftPort, float rightPort,
+            float upVert, float downVert) {
+        mThresholds[0] = leftLand;
+        mThresholds[1] = rightLand;
+        mThresholds[2] = leftPort;
+        mThresholds[3] = rightPort;
+        mThresholds[4] = upVert;
+        mThresholds[5] = downVert;
+    }
+
+    public void setEarlySwipeEnabled(boolean enabled) {
+        mEarlySwipeEnabled = enabled;
+    }
+
+    public void setScrubEnabled(boolean enabled) {
+        mScrubEnabled = enabled;
+    }
+
+    /**
+     * Whether a tap on each side waited for a second one while recording
+     */
+    public void setDoubleTapEnabled(boolean left, boolean right) {
+        mDoubleTapLeftEnabled = left;
+        mDoubleTapRightEnabled = right;
+    }
+
+    /**
+     * Whether the short and long swipe each way did the same thing while
+     * recording, that decides if an early swipe fires short
+     */
+    public void setSameSwipeAction(boolean left, boolean right) {
+        mSameSwipeLeft = left;
+        mSameSwipeRight = right;
+    }
+
+    public void clearExpected() {
+        mExpectedCount = 0;
+    }
+
+    /**
+     * Note a gesture the recording should produce, in order
+     */
+    public void addExpected(FlingGesture gesture) {
+        if (mExpectedCount == mExpected.length) {
+            mExpected = grow(mExpected);
+        }
+        mExpected[mExpectedCount++] = (byte) gesture.ordinal();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getDensityDpi() {
+        return mDensityDpi;
+    }
+
+    public boolean isLandscape() {
+        return mIsLandscape;
+    }
+
+    public boolean isLeftInLandscape() {
+        return mLeftInLandscape;
+    }
+
+    public int getLongPressTimeout() {
+        return mLongPressTimeout;
+    }
+
+    public float getLeftLandThreshold() {
+        return mThresholds[0];
+    }
+
+    public float getRightLandThreshold() {
+        return mThresholds[1];
+    }
+
+    public float getLeftPortThreshold() {
+        return mThresholds[2];
+    }
+
+    public float getRightPortThreshold() {
+        return mThresholds[3];
+    }
+
+    public float getUpVertThreshold() {
+        return mThresholds[4];
+    }
+
+    public float getDownVertThreshold() {
+        return mThresholds[5];
+    }
+
+    public boolean isEarlySwipeEnabled() {
+        return mEarlySwipeEnabled;
+    }
+
+    public boolean isScrubEnabled() {
+        return mScrubEnabled;
+    }
+
+    public boolean isDoubleTapEnabled(boolean isRight) {
+        return isRight ? mDoubleTapRightEnabled : mDoubleTapLeftEnabled;
+    }
+
+    public boolean isSameSwipeAction(boolean isRight) {
+        return isRight ? mSameSwipeRight : mSameSwipeLeft;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return true once the trace holds {@link #MAX_SAMPLES}, add nothing more
+     */
+    public boolean isFull() {
+        return mSampleCount >= MAX_SAMPLES;
+    }
+
+    public int getAction(int event) {
+        return mActions[event];
+    }
+
+    public int getFirstSample(int event) {
+        return mFirstSample[event];
+    }
+
+    /**
+     * @return samples in the event, the last one is the event's own position
+     */
+    public int getSampleCount(int event) {
+        final int end = event + 1 < mEventCount ? mFirstSample[event + 1] : mSampleCount;
+        return end - mFirstSample[event];
+    }
+
+    public int getSampleTime(int sample) {
+        return mTimes[sample];
+    }
+
+    public float getSampleX(int sample) {
+        return mXs[sample];
+    }
+
+    public float getSampleY(int sample) {
+        return mYs[sample];
+    }
+
+    public int getExpectedCount() {
+        return mExpectedCount;
+    }
+
+    public FlingGesture getExpected(int index) {
+        return FlingGesture.values()[mExpected[index]];
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeShort(mDensityDpi);
+        out.writeByte((mIsLandscape ? FLAG_LANDSCAPE : 0)
+                | (mLeftInLandscape ? FLAG_LEFT_IN_LANDSCAPE : 0)
+                | (mEarlySwipeEnabled ? FLAG_EARLY_SWIPE : 0)
+                | (mScrubEnabled ? FLAG_SCRUB : 0)
+                | (mDoubleTapLeftEnabled ? FLAG_DOUBLE_TAP_LEFT : 0)
+                | (mDoubleTapRightEnabled ? FLAG_DOUBLE_TAP_RIGHT : 0)
+                | (mSameSwipeLeft ? FLAG_SAME_SWIPE_LEFT : 0)
+                | (mSameSwipeRight ? FLAG_SAME_SWIPE_RIGHT : 0));
+        out.writeShort(mLongPressTimeout);
+        for (int i = 0; i < THRESHOLD_COUNT; i++) {
+            out.writeFloat(mThresholds[i]);
+        }
+        out.writeInt(mEventCount);
+        out.writeInt(mSampleCount);
+        out.writeInt(mExpectedCount);
+        for (int i = 0; i < mEventCount; i++) {
+            out.writeByte(mActions[i]);
+            out.writeShort(getSampleCount(i));
+        }
+        for (int i = 0; i < mSampleCount; i++) {
+            out.writeInt(mTimes[i]);
+            out.writeFloat(mXs[i]);
+            out.writeFloat(mYs[i]);
+        }
+        for (int i = 0; i < mExpectedCount; i++) {
+            out.writeByte(mExpected[i]);
+        }
+    }
+
+    public static TouchTrace read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a touch trace");
+        }
+        final short version = in.readShort();
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IOException("Unsupported touch trace version " + version);
+        }
+        final int width = in.readInt();
+        final int height = in.readInt();
+        final int densityDpi = in.readShort();
+        final int flags = in.readByte();
+        final int longPressTimeout = in.readShort();
+        final TouchTrace trace = new TouchTrace(width, height, densityDpi,
+                (flags & FLAG_LANDSCAPE) != 0, (flags & FLAG_LEFT_IN_LANDSCAPE) != 0,
+                longPressTimeout);
+        for (int i = 0; i < THRESHOLD_COUNT; i++) {
+            trace.mThresholds[i] = in.readFloat();
+        }
+        trace.mEarlySwipeEnabled = (flags & FLAG_EARLY_SWIPE) != 0;
+        trace.mScrubEnabled = (flags & FLAG_SCRUB) != 0;
+        trace.mDoubleTapLeftEnabled = (flags & FLAG_DOUBLE_TAP_LEFT) != 0;
+        trace.mDoubleTapRightEnabled = (flags & FLAG_DOUBLE_TAP_RIGHT) != 0;
+        trace.mSameSwipeLeft = (flags & FLAG_SAME_SWIPE_LEFT) != 0;
+        trace.mSameSwipeRight = (flags & FLAG_SAME_SWIPE_RIGHT) != 0;
+        final int eventCount = in.readInt();
+        final int sampleCount = in.readInt();
+        final int expectedCount = in.readInt();
+        if (eventCount < 0 || sampleCount < 0 || expectedCount < 0) {
+            throw new IOException("Corrupt touch trace");
+        }
+        trace.mActions = new byte[Math.max(eventCount, 1)];
+        trace.mFirstSample = new int[Math.max(eventCount, 1)];
+        int first = 0;
+        for (int i = 0; i < eventCount; i++) {
+            trace.mActions[i] = in.readByte();
+            trace.mFirstSample[i] = first;
+            first += in.readShort();
+        }
+        if (first != sampleCount) {
+            throw new IOException("Corrupt touch trace");
+        }
+        trace.mEventCount = eventCount;
+        trace.mTimes = new int[Math.max(sampleCount, 1)];
+        trace.mXs = new float[Math.max(sampleCount, 1)];
+        trace.mYs = new float[Math.max(sampleCount, 1)];
+        for (int i = 0; i < sampleCount; i++) {
+            trace.mTimes[i] = in.readInt();
+            trace.mXs[i] = in.readFloat();
+            trace.mYs[i] = in.readFloat();
+        }
+        trace.mSampleCount = sampleCount;
+        trace.mExpected = new byte[Math.max(expectedCount, 1)];
+        for (int i = 0; i < expectedCount; i++) {
+            trace.mExpected[i] = in.readByte();
+        }
+        trace.mExpectedCount = expectedCount;
+        return trace;
+    }
+
+    private void addSample(long time, float x, float y) {
+        if (mSampleCount == mTimes.length) {
+            final int size = mTimes.length * 2;
+            final int[] times = new int[size];
+            final float[] xs = new float[size];
+            final float[] ys = new float[size];
+            System.arraycopy(mTimes, 0, times, 0, mSampleCount);
+            System.arraycopy(mXs, 0, xs, 0, mSampleCount);
+            System.arraycopy(mYs, 0, ys, 0, mSampleCount);
+            mTimes = times;
+            mXs = xs;
+            mYs = ys;
+        }
+        mTimes[mSampleCount] = (int) time;
+        mXs[mSampleCount] = x;
+        mYs[mSampleCount] = y;
+        mSampleCount++;
+    }
+
+    private void ensureEventCapacity() {
+        if (mEventCount == mActions.length) {
+            mActions = grow(mActions);
+            final int[] first = new int[mFirstSample.length * 2];
+            System.arraycopy(mFirstSample, 0, first, 0, mEventCount);
+            mFirstSample = first;
+        }
+    }
+
+    private static byte[] grow(byte[] array) {
+        final byte[] grown = new byte[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,434 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Feeds a TouchTrace through FlingGestureDetector and FlingGestureHandler
+ * on a virtual clock, so tap, double tap and long press timeouts fire at
+ * the recorded times no matter how fast the replay runs. The handler runs
+ * with the trace's settings and density rather than the device's, and
+ * gestures land in a recording Swipeable instead of firing actions. Use
+ * it to check a recognizer change still maps a recording to the same
+ * gestures, and to time the recognizer and count what it allocates
+ * without a finger on the glass.
+ * Replay on a thread with a Looper, the recognizer makes its own Handlers
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.android.systemui.navigation.fling.FlingGestureDetector.Clock;
+import com.android.systemui.navigation.fling.FlingGestureHandler.Swipeable;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+public class TraceReplayer {
+    // run out pending timeouts this long after the last event
+    private static final int SETTLE_MILLIS = 5000;
+
+    private final Context mContext;
+    // context at the density of the last trace replayed
+    private Context mReplayContext;
+    private int mReplayDensityDpi;
+
+    public static final class Result {
+        private final ArrayList<FlingGesture> mGestures = new ArrayList<FlingGesture>();
+
+        public int getGestureCount() {
+            return mGestures.size();
+        }
+
+        public FlingGesture getGesture(int index) {
+            return mGestures.get(index);
+        }
+
+        void clear() {
+            mGestures.clear();
+        }
+
+        /**
+         * @return true if the replay produced exactly the trace's expected gestures
+         */
+        public boolean matches(TouchTrace trace) {
+            if (mGestures.size() != trace.getExpectedCount()) {
+                return false;
+            }
+            for (int i = 0; i < mGestures.size(); i++) {
+                if (mGestures.get(i) != trace.getExpected(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return mGestures.toString();
+        }
+    }
+
+    /**
+     * Mean cost of the event feed over a run of replays
+     */
+    public static final class Timing {
+        private final long mNanosPerReplay;
+        private final long mAllocationsPerReplay;
+
+        Timing(long nanosPerReplay, long allocationsPerReplay) {
+            mNanosPerReplay = nanosPerReplay;
+            mAllocationsPerReplay = allocationsPerReplay;
+        }
+
+        public long getNanosPerReplay() {
+            return mNanosPerReplay;
+        }
+
+        public long getAllocationsPerReplay() {
+            return mAllocationsPerReplay;
+        }
+
+        @Override
+        public String toString() {
+            return mNanosPerReplay + "ns, " + mAllocationsPerReplay + " allocations per replay";
+        }
+    }
+
+    // plain arrays rather than boxed times, the allocation count is the recognizer's own
+    private static final class VirtualClock implements Clock {
+        private Runnable[] mRunnables = new Runnable[4];
+        private long[] mTimes = new long[4];
+        private int mCount;
+        private long mNow;
+
+        @Override
+        public long uptimeMillis() {
+            return mNow;
+        }
+
+        @Override
+        public void postAtTime(Runnable r, long uptimeMillis) {
+            if (mCount == mTimes.length) {
+                mRunnables = Arrays.copyOf(mRunnables, mCount * 2);
+                mTimes = Arrays.copyOf(mTimes, mCount * 2);
+            }
+            mRunnables[mCount] = r;
+            mTimes[mCount] = uptimeMillis;
+            mCount++;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            for (int i = mCount - 1; i >= 0; i--) {
+                if (mRunnables[i] == r) {
+                    remove(i);
+                }
+            }
+        }
+
+        // run everything due by the given time in deadline order, then sit at it
+        void advanceTo(long time) {
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mCount; i++) {
+                    if (mTimes[i] <= time && (next == -1 || mTimes[i] < mTimes[next])) {
+                        next = i;
+                    }
+                }
+                if (next == -1) {
+                    break;
+                }
+                final Runnable r = mRunnables[next];
+                mNow = Math.max(mNow, mTimes[next]);
+                remove(next);
+                r.run();
+            }
+            mNow = Math.max(mNow, time);
+        }
+
+        void reset() {
+            for (int i = 0; i < mCount; i++) {
+                mRunnables[i] = null;
+            }
+            mCount = 0;
+            mNow = 0;
+        }
+
+        private void remove(int index) {
+            mCount--;
+            System.arraycopy(mRunnables, index + 1, mRunnables, index, mCount - index);
+            System.arraycopy(mTimes, index + 1, mTimes, index, mCount - index);
+            mRunnables[mCount] = null;
+        }
+    }
+
+    private static final class RecordingSwipeable implements Swipeable {
+        private final TouchTrace mTrace;
+        private Result mResult;
+
+        RecordingSwipeable(TouchTrace trace) {
+            mTrace = trace;
+        }
+
+        @Override
+        public boolean onDoubleTapEnabled(boolean isRight) {
+            return mTrace.isDoubleTapEnabled(isRight);
+        }
+
+        @Override
+        public void onShortLeftSwipe(long eventTime) {
+            mResult.mGestures.add(FlingGesture.SHORT_LEFT_SWIPE);
+        }
+
+        @Override
+        public void onLongLeftSwipe(long eventTime) {
+            mResult.mGestures.add(FlingGesture.LONG_LEFT_SWIPE);
+        }
+
+        @Override
+        public void onShortRightSwipe(long eventTime) {
+            mResult.mGestures.add(FlingGesture.SHORT_RIGHT_SWIPE);
+        }
+
+        @Override
+        public void onLongRightSwipe(long eventTime) {
+            mResult.mGestures.add(FlingGesture.LONG_RIGHT_SWIPE);
+        }
+
+        @Override
+        public void onSingleLeftPress(long eventTime) {
+            mResult.mGestures.add(FlingGesture.SINGLE_LEFT_TAP);
+        }
+
+        @Override
+        public void onSingleRightPress(long eventTime) {
+            mResult.mGestures.add(FlingGesture.SINGLE_RIGHT_TAP);
+        }
+
+        @Override
+        public void onDoubleLeftTap(long eventTime) {
+            mResult.mGestures.add(FlingGesture.DOUBLE_LEFT_TAP);
+        }
+
+        @Override
+        public void onDoubleRightTap(long eventTime) {
+            mResult.mGestures.add(FlingGesture.DOUBLE_RIGHT_TAP);
+        }
+
+        @Override
+        public void onLongLeftPress(long eventTime) {
+            mResult.mGestures.add(FlingGesture.LONG_LEFT_PRESS);
+        }
+
+        @Override
+        public void onLongRightPress(long eventTime) {
+            mResult.mGestures.add(FlingGesture.LONG_RIGHT_PRESS);
+        }
+
+        @Override
+        public void onUpRightSwipe(long eventTime) {
+            mResult.mGestures.add(FlingGesture.UP_RIGHT_SWIPE);
+        }
+
+        @Override
+        public void onUpLeftSwipe(long eventTime) {
+            mResult.mGestures.add(FlingGesture.UP_LEFT_SWIPE);
+        }
+
+        @Override
+        public boolean isSameAction(FlingGesture first, FlingGesture second) {
+            if (first == second) {
+                return true;
+            }
+            // nothing is bound, answer for the swipe pairs the recording noted
+            if (isPair(first, second, FlingGesture.SHORT_LEFT_SWIPE,
+                    FlingGesture.LONG_LEFT_SWIPE)) {
+                return mTrace.isSameSwipeAction(false);
+            }
+            if (isPair(first, second, FlingGesture.SHORT_RIGHT_SWIPE,
+                    FlingGesture.LONG_RIGHT_SWIPE)) {
+                return mTrace.isSameSwipeAction(true);
+            }
+            return false;
+        }
+
+        private static boolean isPair(FlingGesture first, FlingGesture second,
+                FlingGesture a, FlingGesture b) {
+            return (first == a && second == b) || (first == b && second == a);
+        }
+
+        @Override
+        public boolean onScrubStart(boolean isRight) {
+            return false;
+        }
+
+        @Override
+        public void onScrub(int steps) {
+        }
+
+        @Override
+        public void onScrubEnd() {
+        }
+    }
+
+    /**
+     * A detector and handler set up for one trace, reset between runs
+     */
+    private static final class Session {
+        private final TouchTrace mTrace;
+        private final VirtualClock mClock = new VirtualClock();
+        private final RecordingSwipeable mReceiver;
+        private final FlingGestureHandler mHandler;
+        private final FlingGestureDetector mDetector;
+
+        Session(Context context, TouchTrace trace) {
+            mTrace = trace;
+            mReceiver = new RecordingSwipeable(trace);
+            mHandler = new FlingGestureHandler(context, mReceiver, new View(context), false);
+            mHandler.applySettings(trace);
+            mHandler.setClock(mClock);
+            mHandler.setGeometry(trace.getWidth(), trace.getHeight(), trace.isLandscape(),
+                    trace.isLeftInLandscape());
+            final int longPressTimeout = trace.getLongPressTimeout();
+            mDetector = new FlingGestureDetector(context, mHandler, null) {
+                @Override
+                protected int getLongPressTimeout() {
+                    return longPressTimeout > 0 ? longPressTimeout : super.getLongPressTimeout();
+                }
+            };
+            mDetector.setClock(mClock);
+            mDetector.setOnScrubListener(mHandler);
+        }
+
+        // detector first, it pulls its own timeout before the clock forgets it
+        void reset(Result result) {
+            mDetector.reset();
+            mHandler.reset();
+            mClock.reset();
+            result.clear();
+            mReceiver.mResult = result;
+        }
+
+        void feed() {
+            final TouchTrace trace = mTrace;
+            long downTime = 0;
+            long lastTime = 0;
+            for (int event = 0; event < trace.getEventCount(); event++) {
+                final int first = trace.getFirstSample(event);
+                final int count = trace.getSampleCount(event);
+                if (count == 0) {
+                    continue;
+                }
+                final int action = trace.getAction(event);
+                final long eventTime = trace.getSampleTime(first + count - 1);
+                if (action == MotionEvent.ACTION_DOWN) {
+                    downTime = eventTime;
+                }
+                mClock.advanceTo(eventTime);
+                final MotionEvent ev = MotionEvent.obtain(downTime, trace.getSampleTime(first),
+                        action, trace.getSampleX(first), trace.getSampleY(first), 0);
+                for (int i = first + 1; i < first + count; i++) {
+                    ev.addBatch(trace.getSampleTime(i), trace.getSampleX(i),
+                            trace.getSampleY(i), 1f, 1f, 0);
+                }
+                mDetector.onTouchEvent(ev);
+                ev.recycle();
+                lastTime = eventTime;
+            }
+            mClock.advanceTo(lastTime + SETTLE_MILLIS);
+        }
+    }
+
+    public TraceReplayer(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Replay once through a fresh detector and handler
+     */
+    public Result replay(TouchTrace trace) {
+        final Session session = new Session(getReplayContext(trace.getDensityDpi()), trace);
+        final Result result = new Result();
+        session.reset(result);
+        session.feed();
+        return result;
+    }
+
+    /**
+     * Replay and store what came out as the trace's expected gestures
+     */
+    public void recordExpected(TouchTrace trace) {
+        final Result result = replay(trace);
+        trace.clearExpected();
+        for (int i = 0; i < result.getGestureCount(); i++) {
+            trace.addExpected(result.getGesture(i));
+        }
+    }
+
+    /**
+     * Replay repeatedly through one detector and handler, timing only the
+     * event feed. Allocations are counted on a second pass, counting slows
+     * the runtime down too much to time the same runs
+     */
+    public Timing timeReplays(TouchTrace trace, int iterations) {
+        final Session session = new Session(getReplayContext(trace.getDensityDpi()), trace);
+        final Result result = new Result();
+        iterations = Math.max(1, iterations);
+        // let the runtime warm up before measuring
+        for (int i = 0; i < Math.min(iterations, 10); i++) {
+            session.reset(result);
+            session.feed();
+        }
+
+        long nanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            session.reset(result);
+            final long start = SystemClock.elapsedRealtimeNanos();
+            session.feed();
+            nanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        long allocations = 0;
+        for (int i = 0; i < iterations; i++) {
+            session.reset(result);
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            session.feed();
+            Debug.stopAllocCounting();
+            allocations += Debug.getThreadAllocCount();
+        }
+        return new Timing(nanos / iterations, allocations / iterations);
+    }
+
+    // slop and fling speeds scale with density, so replay at the recorded one
+    private Context getReplayContext(int densityDpi) {
+        final Configuration config = mContext.getResources().getConfiguration();
+        if (densityDpi <= 0 || densityDpi == config.densityDpi) {
+            return mContext;
+        }
+        if (mReplayContext == null || mReplayDensityDpi != densityDpi) {
+            final Configuration replayConfig = new Configuration(config);
+            replayConfig.densityDpi = densityDpi;
+            mReplayContext = mContext.createConfigurationContext(replayConfig);
+            mReplayDensityDpi = densityDpi;
+        }
+        return mReplayContext;
+    }
+}
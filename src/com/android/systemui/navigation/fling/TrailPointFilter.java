@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Thins raw touch samples before they reach the trail renderer. Samples
+ * closer than a minimum spacing to the last kept one are dropped, and the
+ * kept ones wait in a small ring until the stretch since the last emitted
+ * point stops being a straight line within tolerance, the streaming form
+ * of Ramer-Douglas-Peucker. Only history samples inside one batch are
+ * held back, the newest sample of each batch always goes out so the trail
+ * tip keeps up with the finger. What comes out depends on how far the
+ * finger moved and how much it turned, not on the panel's report rate
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+public class TrailPointFilter {
+    public interface PointSink {
+        public void onPoint(int x, int y);
+    }
+
+    // pending window, a stretch this long goes out even if perfectly straight
+    private static final int CAPACITY = 16;
+
+    private final float[] mXs = new float[CAPACITY];
+    private final float[] mYs = new float[CAPACITY];
+    private int mHead;
+    private int mCount;
+
+    private final PointSink mSink;
+    private float mMinSpacingSquared;
+    private float mToleranceSquared;
+
+    // last point handed to the sink
+    private float mAnchorX;
+    private float mAnchorY;
+    private boolean mHasAnchor;
+
+    /**
+     * @param minSpacing samples nearer than this to the last kept one are dropped
+     * @param tolerance how far a dropped point may sit from the simplified line
+     */
+    public TrailPointFilter(PointSink sink, float minSpacing, float tolerance) {
+        mSink = sink;
+        setMetrics(minSpacing, tolerance);
+    }
+
+    public void setMetrics(float minSpacing, float tolerance) {
+        mMinSpacingSquared = minSpacing * minSpacing;
+        mToleranceSquared = tolerance * tolerance;
+    }
+
+    public void start(float x, float y) {
+        mCount = 0;
+        mHead = 0;
+        mAnchorX = x;
+        mAnchorY = y;
+        mHasAnchor = true;
+    }
+
+    /**
+     * Add a history sample from inside a batch, it may be held back or dropped
+     */
+    public void add(float x, float y) {
+        if (!mHasAnchor) {
+            start(x, y);
+            return;
+        }
+        if (isTooClose(x, y)) {
+            return;
+        }
+        // anything pending off the anchor -> new point line pins the newest pending point
+        if (mCount > 0 && !isStraight(x, y)) {
+            emitThrough(mCount - 1);
+        }
+        if (mCount == CAPACITY) {
+            emitThrough(mCount - 1);
+        }
+        push(x, y);
+    }
+
+    /**
+     * Add the newest sample of a batch. Nothing is held back past it, so the
+     * tip of the trail is never further than the spacing from the finger
+     */
+    public void addLatest(float x, float y) {
+        if (!mHasAnchor) {
+            start(x, y);
+            return;
+        }
+        if (isTooClose(x, y)) {
+            if (mCount > 0) {
+                emitThrough(mCount - 1);
+            }
+            return;
+        }
+        if (mCount > 0) {
+            if (isStraight(x, y)) {
+                // the whole stretch is on the line, only its end matters
+                mCount = 0;
+                mHead = 0;
+            } else {
+                emitThrough(mCount - 1);
+            }
+        }
+        push(x, y);
+        emitThrough(0);
+    }
+
+    /**
+     * Send whatever is still pending, on lift or cancel
+     */
+    public void flush() {
+        if (mCount > 0) {
+            emitThrough(mCount - 1);
+        }
+        mHasAnchor = false;
+    }
+
+    private boolean isTooClose(float x, float y) {
+        final float lastX = mCount > 0 ? getX(mCount - 1) : mAnchorX;
+        final float lastY = mCount > 0 ? getY(mCount - 1) : mAnchorY;
+        return distanceSquared(lastX, lastY, x, y) < mMinSpacingSquared;
+    }
+
+    private boolean isStraight(float x, float y) {
+        final float dx = x - mAnchorX;
+        final float dy = y - mAnchorY;
+        final float lengthSquared = dx * dx + dy * dy;
+        for (int i = 0; i < mCount; i++) {
+            final float px = getX(i) - mAnchorX;
+            final float py = getY(i) - mAnchorY;
+            final float deviationSquared;
+            if (lengthSquared == 0f) {
+                deviationSquared = px * px + py * py;
+            } else {
+                final float cross = px * dy - py * dx;
+                deviationSquared = cross * cross / lengthSquared;
+            }
+            if (deviationSquared > mToleranceSquared) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // emit pending point at index, it becomes the anchor and everything before it is dropped
+    private void emitThrough(int index) {
+        mAnchorX = getX(index);
+        mAnchorY = getY(index);
+        mSink.onPoint((int) mAnchorX, (int) mAnchorY);
+        mHead = (mHead + index + 1) % CAPACITY;
+        mCount -= index + 1;
+    }
+
+    private void push(float x, float y) {
+        final int slot = (mHead + mCount) % CAPACITY;
+        mXs[slot] = x;
+        mYs[slot] = y;
+        mCount++;
+    }
+
+    private float getX(int index) {
+        return mXs[(mHead + index) % CAPACITY];
+    }
+
+    private float getY(int index) {
+        return mYs[(mHead + index) % CAPACITY];
+    }
+
+    private static float distanceSquared(float x1, float y1, float x2, float y2) {
+        final float dx = x2 - x1;
+        final float dy = y2 - y1;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Guesses how far the finger will move a short time past the newest touch
+ * sample. The last few samples sit in a primitive ring, and a constant
+ * acceleration fit over the newest three is extrapolated forward, then
+ * clamped to a maximum distance so a jittery sample can't throw the guess
+ * across the bar. The result is an offset, callers add it to whatever
+ * point they last drew. No allocation happens per sample
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+public class TrailPredictor {
+    private static final int RING_SIZE = 4;
+    // samples closer together than this give useless velocities
+    private static final long MIN_SAMPLE_INTERVAL = 1;
+    // samples further apart than this describe a different motion
+    private static final long MAX_SAMPLE_INTERVAL = 50;
+
+    private final float[] mX = new float[RING_SIZE];
+    private final float[] mY = new float[RING_SIZE];
+    private final long[] mTime = new long[RING_SIZE];
+    private int mHead;
+    private int mCount;
+    private float mMaxDistance;
+
+    private float mPredictedDx;
+    private float mPredictedDy;
+
+    public TrailPredictor(float maxDistance) {
+        mMaxDistance = maxDistance;
+    }
+
+    public void reset() {
+        mHead = 0;
+        mCount = 0;
+    }
+
+    public void add(float x, float y, long eventTime) {
+        if (mCount > 0) {
+            final int last = (mHead + RING_SIZE - 1) % RING_SIZE;
+            final long dt = eventTime - mTime[last];
+            if (dt < MIN_SAMPLE_INTERVAL) {
+                // same timestamp, keep the newest position only
+                mX[last] = x;
+                mY[last] = y;
+                return;
+            }
+            if (dt > MAX_SAMPLE_INTERVAL) {
+                reset();
+            }
+        }
+        mX[mHead] = x;
+        mY[mHead] = y;
+        mTime[mHead] = eventTime;
+        mHead = (mHead + 1) % RING_SIZE;
+        if (mCount < RING_SIZE) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Extrapolate the newest sample by horizon milliseconds. Returns false when
+     * there is not enough history, read the offset with getDx and getDy
+     */
+    public boolean predict(float horizon) {
+        if (mCount < 3 || horizon <= 0f) {
+            return false;
+        }
+        final int i2 = (mHead + RING_SIZE - 1) % RING_SIZE;
+        final int i1 = (mHead + RING_SIZE - 2) % RING_SIZE;
+        final int i0 = (mHead + RING_SIZE - 3) % RING_SIZE;
+        final float dt1 = mTime[i2] - mTime[i1];
+        final float dt0 = mTime[i1] - mTime[i0];
+
+        final float vx1 = (mX[i2] - mX[i1]) / dt1;
+        final float vy1 = (mY[i2] - mY[i1]) / dt1;
+        final float vx0 = (mX[i1] - mX[i0]) / dt0;
+        final float vy0 = (mY[i1] - mY[i0]) / dt0;
+        final float span = (dt0 + dt1) * 0.5f;
+        float ax = (vx1 - vx0) / span;
+        float ay = (vy1 - vy0) / span;
+        // a finger slowing down doesn't reverse, don't let the fit run it backwards
+        if (ax * vx1 < 0f && -vx1 / ax < horizon) {
+            ax = -vx1 / horizon;
+        }
+        if (ay * vy1 < 0f && -vy1 / ay < horizon) {
+            ay = -vy1 / horizon;
+        }
+
+        float dx = vx1 * horizon + 0.5f * ax * horizon * horizon;
+        float dy = vy1 * horizon + 0.5f * ay * horizon * horizon;
+        final float dist = (float) Math.hypot(dx, dy);
+        if (dist > mMaxDistance) {
+            final float scale = mMaxDistance / dist;
+            dx *= scale;
+            dy *= scale;
+        }
+        mPredictedDx = dx;
+        mPredictedDy = dy;
+        return true;
+    }
+
+    public float getDx() {
+        return mPredictedDx;
+    }
+
+    public float getDy() {
+        return mPredictedDy;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Automatic gain for Pulse bars. Tracks a high percentile of band energy
+ * with the P-square streaming estimator (Jain and Chlamtac, 1985) so the
+ * loud parts of any track reach the top of the bar. Five markers, no
+ * history, constant cost per sample. Two estimators overlap so the level
+ * follows the music: one answers while the other warms up, and every
+ * window the warm one takes over and a fresh one starts. A quieter or
+ * louder track is picked up within one or two windows
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class AutoGain {
+    public static final String PULSE_AUTO_GAIN_URI = "pulse_auto_gain";
+
+    // band energy at this percentile maps to full bar height
+    private static final float PERCENTILE = 0.95f;
+    // floor for the reference level in dB so near silence isn't blown up to full height
+    private static final float MIN_REFERENCE_DB = 12f;
+    // samples per window, all bands together. Around ten seconds of music
+    private static final int WINDOW = 1 << 15;
+
+    private PSquare mEstimator = new PSquare(PERCENTILE);
+    private PSquare mNextEstimator = new PSquare(PERCENTILE);
+    private int mWindowCount;
+
+    public void reset() {
+        mEstimator.reset();
+        mNextEstimator.reset();
+        mWindowCount = 0;
+    }
+
+    /**
+     * Feed a band value to the estimator and scale it to the available length
+     *
+     * @param db band energy in dB
+     * @param range available bar length in pixels
+     * @return bar length in pixels, never more than range
+     */
+    public float apply(float db, float range) {
+        mEstimator.add(db);
+        mNextEstimator.add(db);
+        if (++mWindowCount >= WINDOW) {
+            // the warm estimator has a full window behind it, hand over
+            final PSquare old = mEstimator;
+            mEstimator = mNextEstimator;
+            mNextEstimator = old;
+            mNextEstimator.reset();
+            mWindowCount = 0;
+        }
+        final float reference = Math.max(MIN_REFERENCE_DB, mEstimator.getQuantile());
+        return Math.min(range, db / reference * range);
+    }
+
+    static final class PSquare {
+        private final double mP;
+        // marker heights, actual positions, desired positions, desired position increments.
+        // desired positions are double, float stops resolving the increments long before a
+        // window ends
+        private final float[] mQ = new float[5];
+        private final int[] mN = new int[5];
+        private final double[] mNp = new double[5];
+        private final double[] mDn = new double[5];
+        private int mCount;
+
+        PSquare(float p) {
+            mP = p;
+            reset();
+        }
+
+        void reset() {
+            mCount = 0;
+            mDn[0] = 0d;
+            mDn[1] = mP / 2d;
+            mDn[2] = mP;
+            mDn[3] = (1d + mP) / 2d;
+            mDn[4] = 1d;
+        }
+
+        void add(float x) {
+            if (mCount < 5) {
+                // collect the first five samples sorted
+                int i = mCount++;
+                while (i > 0 && mQ[i - 1] > x) {
+                    mQ[i] = mQ[i - 1];
+                    i--;
+                }
+                mQ[i] = x;
+                if (mCount == 5) {
+                    for (int j = 0; j < 5; j++) {
+                        mN[j] = j;
+                    }
+                    mNp[0] = 0d;
+                    mNp[1] = 2d * mP;
+                    mNp[2] = 4d * mP;
+                    mNp[3] = 2d + 2d * mP;
+                    mNp[4] = 4d;
+                }
+                return;
+            }
+
+            // find the cell x falls in, stretching the extremes if needed
+            int k;
+            if (x < mQ[0]) {
+                mQ[0] = x;
+                k = 0;
+            } else if (x >= mQ[4]) {
+                mQ[4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (x >= mQ[k + 1]) {
+                    k++;
+                }
+            }
+            for (int i = k + 1; i < 5; i++) {
+                mN[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                mNp[i] += mDn[i];
+            }
+
+            // nudge the middle markers toward their desired positions
+            for (int i = 1; i <= 3; i++) {
+                final double d = mNp[i] - mN[i];
+                if ((d >= 1d && mN[i + 1] - mN[i] > 1)
+                        || (d <= -1d && mN[i - 1] - mN[i] < -1)) {
+                    final int s = d >= 0 ? 1 : -1;
+                    final float q = parabolic(i, s);
+                    if (mQ[i - 1] < q && q < mQ[i + 1]) {
+                        mQ[i] = q;
+                    } else {
+                        mQ[i] = mQ[i] + s * (mQ[i + s] - mQ[i]) / (mN[i + s] - mN[i]);
+                    }
+                    mN[i] += s;
+                }
+            }
+            mCount++;
+        }
+
+        float getQuantile() {
+            if (mCount >= 5) {
+                return mQ[2];
+            }
+            // not enough samples yet, the largest seen is a safe reference
+            return mCount == 0 ? 0f : mQ[mCount - 1];
+        }
+
+        private float parabolic(int i, int d) {
+            return mQ[i] + (float) d / (mN[i + 1] - mN[i - 1])
+                    * ((mN[i] - mN[i - 1] + d) * (mQ[i + 1] - mQ[i]) / (mN[i + 1] - mN[i])
+                    + (mN[i + 1] - mN[i] - d) * (mQ[i] - mQ[i - 1]) / (mN[i] - mN[i - 1]));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Smooths a set of band values toward their latest targets with separate
+ * attack and release time constants, plus optional peak caps that hold
+ * and then fall. Steps are scaled by elapsed time so motion looks the
+ * same at any frame rate. Plain float arrays, no per frame allocation
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class BandSmoother {
+    // longest step taken in one update, a stall shouldn't snap everything to target
+    private static final long MAX_STEP_MILLIS = 100;
+    // close enough to target to stop asking for frames
+    private static final float SETTLE_EPSILON = 0.5f;
+
+    private float[] mTargets = new float[0];
+    private float[] mValues = new float[0];
+    private float[] mPeaks = new float[0];
+    private long[] mPeakTimes = new long[0];
+    private float mAttackMillis = 30f;
+    private float mReleaseMillis = 128f;
+    private boolean mPeakHoldEnabled;
+    private long mPeakHoldMillis = 300;
+    private float mPeakFallPerMilli;
+    private long mLastUpdate;
+
+    /**
+     * Resize for a new band count. All values drop to zero
+     */
+    public void setSize(int size) {
+        if (mValues.length != size) {
+            mTargets = new float[size];
+            mValues = new float[size];
+            mPeaks = new float[size];
+            mPeakTimes = new long[size];
+        } else {
+            reset();
+        }
+    }
+
+    public int getSize() {
+        return mValues.length;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mValues.length; i++) {
+            mTargets[i] = 0f;
+            mValues[i] = 0f;
+            mPeaks[i] = 0f;
+            mPeakTimes[i] = 0;
+        }
+        mLastUpdate = 0;
+    }
+
+    public void setAttackMillis(float millis) {
+        mAttackMillis = Math.max(1f, millis);
+    }
+
+    public void setReleaseMillis(float millis) {
+        mReleaseMillis = Math.max(1f, millis);
+    }
+
+    /**
+     * @param holdMillis how long a peak cap stays put before falling
+     * @param fallPerSecond how fast a released cap falls, in band units
+     */
+    public void setPeakHold(boolean enabled, long holdMillis, float fallPerSecond) {
+        mPeakHoldEnabled = enabled;
+        mPeakHoldMillis = holdMillis;
+        mPeakFallPerMilli = fallPerSecond / 1000f;
+    }
+
+    public boolean isPeakHoldEnabled() {
+        return mPeakHoldEnabled;
+    }
+
+    public void setTarget(int band, float target) {
+        mTargets[band] = target;
+    }
+
+    /**
+     * Advance all bands to the given time
+     *
+     * @param now uptime in millis
+     */
+    public void update(long now) {
+        final long dt = mLastUpdate == 0 ? 0 : Math.min(MAX_STEP_MILLIS, now - mLastUpdate);
+        mLastUpdate = now;
+        if (dt <= 0) {
+            return;
+        }
+        // exact one pole coefficients for this step, so 15 and 60 fps land in the same place
+        final float attack = 1f - (float) Math.exp(-dt / mAttackMillis);
+        final float release = 1f - (float) Math.exp(-dt / mReleaseMillis);
+        final float fall = mPeakFallPerMilli * dt;
+        for (int i = 0; i < mValues.length; i++) {
+            final float delta = mTargets[i] - mValues[i];
+            mValues[i] += delta * (delta > 0f ? attack : release);
+            if (mPeakHoldEnabled) {
+                if (mValues[i] >= mPeaks[i]) {
+                    mPeaks[i] = mValues[i];
+                    mPeakTimes[i] = now;
+                } else if (now - mPeakTimes[i] > mPeakHoldMillis) {
+                    mPeaks[i] = Math.max(mValues[i], mPeaks[i] - fall);
+                }
+            }
+        }
+    }
+
+    public float getValue(int band) {
+        return mValues[band];
+    }
+
+    public float getPeak(int band) {
+        return mPeaks[band];
+    }
+
+    /**
+     * @return true once every band, and every falling cap, has come to rest
+     */
+    public boolean isSettled() {
+        // may be polled off the render thread, work on a consistent set of arrays
+        final float[] targets = mTargets;
+        final float[] values = mValues;
+        final float[] peaks = mPeaks;
+        final int size = Math.min(values.length, Math.min(targets.length, peaks.length));
+        for (int i = 0; i < size; i++) {
+            if (Math.abs(targets[i] - values[i]) > SETTLE_EPSILON) {
+                return false;
+            }
+            if (mPeakHoldEnabled && peaks[i] - values[i] > SETTLE_EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Onset detection by spectral flux. Each FFT frame is compared with the
+ * last one and the rise in magnitude is summed. A frame whose flux stands
+ * well above the running mean of recent frames is a beat. Runs on every
+ * captured frame so nothing here allocates once the bin count is known
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+public class BeatDetector {
+    public interface BeatListener {
+        /**
+         * @param confidence 0 to 1, how far the onset stood out from recent flux
+         */
+        public void onBeat(float confidence);
+    }
+
+    // about a second and a half of frames at the usual capture rate
+    private static final int HISTORY_SIZE = 32;
+    // flux must clear mean + THRESHOLD_SIGMA * deviation to count
+    private static final float THRESHOLD_SIGMA = 1.5f;
+    // frames that must pass after a beat before the next one
+    private static final int REFRACTORY_FRAMES = 4;
+    // don't call beats on near silence
+    private static final float MIN_FLUX = 16f;
+
+    private final float[] mFluxHistory = new float[HISTORY_SIZE];
+    private float[] mLastMagnitudes;
+    private float mFluxSum;
+    private float mFluxSquareSum;
+    private int mHead;
+    private int mFilled;
+    private int mFramesSinceBeat;
+    private BeatListener mListener;
+
+    public void setBeatListener(BeatListener listener) {
+        mListener = listener;
+    }
+
+    public void reset() {
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            mFluxHistory[i] = 0f;
+        }
+        if (mLastMagnitudes != null) {
+            for (int i = 0; i < mLastMagnitudes.length; i++) {
+                mLastMagnitudes[i] = 0f;
+            }
+        }
+        mFluxSum = 0f;
+        mFluxSquareSum = 0f;
+        mHead = 0;
+        mFilled = 0;
+        mFramesSinceBeat = REFRACTORY_FRAMES;
+    }
+
+    public void onFFTUpdate(byte[] fft) {
+        if (fft == null || fft.length < 4) {
+            return;
+        }
+        final int bins = (fft.length - 2) / 2;
+        if (mLastMagnitudes == null || mLastMagnitudes.length != bins) {
+            mLastMagnitudes = new float[bins];
+            reset();
+        }
+
+        // half wave rectified difference, only rising energy marks an onset
+        float flux = 0f;
+        for (int i = 0; i < bins; i++) {
+            final int rfk = fft[i * 2 + 2];
+            final int ifk = fft[i * 2 + 3];
+            final float magnitude = (float) Math.sqrt(rfk * rfk + ifk * ifk);
+            final float rise = magnitude - mLastMagnitudes[i];
+            if (rise > 0f) {
+                flux += rise;
+            }
+            mLastMagnitudes[i] = magnitude;
+        }
+
+        // compare against history before this frame joins it
+        boolean isBeat = false;
+        float confidence = 0f;
+        if (mFilled == HISTORY_SIZE && flux > MIN_FLUX
+                && mFramesSinceBeat >= REFRACTORY_FRAMES) {
+            final float mean = mFluxSum / HISTORY_SIZE;
+            final float variance = Math.max(0f, mFluxSquareSum / HISTORY_SIZE - mean * mean);
+            final float deviation = (float) Math.sqrt(variance);
+            final float threshold = mean + THRESHOLD_SIGMA * deviation;
+            if (flux > threshold) {
+                isBeat = true;
+                confidence = Math.min(1f, (flux - threshold) / Math.max(threshold, 1f));
+            }
+        }
+
+        // slide the ring, keeping running sums so the stats stay O(1)
+        final float oldest = mFluxHistory[mHead];
+        mFluxSum += flux - oldest;
+        mFluxSquareSum += flux * flux - oldest * oldest;
+        mFluxHistory[mHead] = flux;
+        mHead = (mHead + 1) % HISTORY_SIZE;
+        if (mFilled < HISTORY_SIZE) {
+            mFilled++;
+        }
+        if (mHead == 0) {
+            // resum once per lap so float drift can't build up
+            mFluxSum = 0f;
+            mFluxSquareSum = 0f;
+            for (int i = 0; i < HISTORY_SIZE; i++) {
+                mFluxSum += mFluxHistory[i];
+                mFluxSquareSum += mFluxHistory[i] * mFluxHistory[i];
+            }
+        }
+
+        if (isBeat) {
+            mFramesSinceBeat = 0;
+            if (mListener != null) {
+                mListener.onBeat(confidence);
+            }
+        } else {
+            mFramesSinceBeat++;
+        }
+    }
+}
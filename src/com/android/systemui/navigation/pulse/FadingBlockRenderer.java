@@ -40,9 +40,18 @@ import com.android.systemui.navigation.utils.ColorAnimator;
 
 public class FadingBlockRenderer extends Renderer implements ColorAnimator.ColorAnimationListener {
     private static final int DEF_PAINT_ALPHA = (byte) 188;
+    // fraction of a lava lamp sweep skipped on a full confidence beat
+    private static final float BEAT_COLOR_STEP = 0.125f;
+    // per frame falloff of the beat brightness boost
+    private static final float BEAT_BOOST_DECAY = 0.75f;
+    // render bars into an ALPHA_8 mask and tint it with the current color at composite time
+    public static final String PULSE_ALPHA_MASK_URI = "pulse_fading_block_alpha_mask";
     private byte[] mFFTBytes;
     private Paint mPaint;
     private Paint mFadePaint;
+    private Paint mTintPaint;
+    private boolean mAlphaMask;
+    private int mCurrentColor;
     private boolean mVertical;
     private boolean mLeftInLandscape;
     private float[] mFFTPoints;
@@ -53,6 +62,8 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
     private int mUserColor;
     private int mDbFuzzFactor;
     private int mDbFuzz;
+    private AutoGain mAutoGain;
+    private boolean mAutoGainEnabled;
     private int mPathEffect1;
     private int mPathEffect2;
     private Bitmap mCanvasBitmap;
@@ -65,9 +76,11 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
     private LegacySettingsObserver mObserver;
     private boolean mLavaLampEnabled;
     private boolean mIsValidStream;
+    private float mBeatBoost;
 
-    public FadingBlockRenderer(Context context, Handler handler, PulseObserver callback) {
-        super(context, handler, callback);
+    public FadingBlockRenderer(Context context, Handler handler, PulseObserver callback,
+            Object lock) {
+        super(context, handler, callback, lock);
         mObserver = new LegacySettingsObserver(handler);
         mLavaLamp = new ColorAnimator();
         mLavaLamp.setColorAnimatorListener(this);
@@ -75,7 +88,9 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
         mFadePaint = new Paint();
         mFadePaint.setColor(Color.argb(200, 255, 255, 255));
         mFadePaint.setXfermode(new PorterDuffXfermode(Mode.MULTIPLY));
+        mTintPaint = new Paint();
         mMatrix = new Matrix();
+        mAutoGain = new AutoGain();
         mDbFuzz = mContext.getResources().getInteger(R.integer.config_pulseDbFuzz);
         mObserver.updateSettings();
         mPaint.setAntiAlias(true);
@@ -86,6 +101,7 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
     public void onStreamAnalyzed(boolean isValid) {
         mIsValidStream = isValid;
         if (isValid) {
+            mAutoGain.reset();
             onSizeChanged(0, 0, 0, 0);
             if (mLavaLampEnabled) {
                 mLavaLamp.start();
@@ -112,16 +128,24 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
                 ifk = mFFTBytes[mDivisions * i + 1];
                 magnitude = (rfk * rfk + ifk * ifk);
                 dbValue = magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
+                final float barLength = mAutoGainEnabled
+                        ? mAutoGain.apply(dbValue, mVertical ? mWidth : mHeight)
+                        : dbValue * mDbFuzzFactor + mDbFuzz;
                 if (mVertical) {
                     mFFTPoints[i * 4] = mLeftInLandscape ? 0 : mWidth;
-                    mFFTPoints[i * 4 + 2] = mLeftInLandscape ? (dbValue * mDbFuzzFactor + mDbFuzz)
-                            : (mWidth - (dbValue * mDbFuzzFactor + mDbFuzz));
+                    mFFTPoints[i * 4 + 2] = mLeftInLandscape ? barLength : (mWidth - barLength);
                 } else {
                     mFFTPoints[i * 4 + 1] = mHeight;
-                    mFFTPoints[i * 4 + 3] = mHeight - (dbValue * mDbFuzzFactor + mDbFuzz);
+                    mFFTPoints[i * 4 + 3] = mHeight - barLength;
                 }
             }
         }
+        if (mBeatBoost > 0f) {
+            applyBeatBoost();
+        }
+        if (mCanvas == null || mFFTPoints == null) {
+            return;
+        }
         mCanvas.drawLines(mFFTPoints, mPaint);
         mCanvas.drawPaint(mFadePaint);
         postInvalidate();
@@ -133,14 +157,17 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
             mWidth = mCallback.getWidth();
             mHeight = mCallback.getHeight();
             mVertical = mHeight > mWidth;
-            mCanvasBitmap = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_8888);
+            mCanvasBitmap = Bitmap.createBitmap(mWidth, mHeight,
+                    mAlphaMask ? Config.ALPHA_8 : Config.ARGB_8888);
             mCanvas = new Canvas(mCanvasBitmap);
         }
     }
 
     @Override
     public void onColorChanged(ColorAnimator colorAnimator, int color) {
-        mPaint.setColor(applyPaintAlphaToColor(color));
+        synchronized (mLock) {
+            setBarColor(color);
+        }
     }
 
     @Override
@@ -149,7 +176,9 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
 
     @Override
     public void onStopAnimation(ColorAnimator colorAnimator, int lastColor) {
-        mPaint.setColor(applyPaintAlphaToColor(mUserColor));
+        synchronized (mLock) {
+            setBarColor(mUserColor);
+        }
     }
 
     @Override
@@ -174,9 +203,44 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
         }
     }
 
+    @Override
+    public void onBeat(float confidence) {
+        if (mLavaLamp.isRunning()) {
+            mLavaLamp.step(BEAT_COLOR_STEP * confidence);
+        }
+        mBeatBoost = Math.max(mBeatBoost, 0.5f + 0.5f * confidence);
+    }
+
+    private void applyBeatBoost() {
+        final int baseAlpha = DEF_PAINT_ALPHA & 0xff;
+        mPaint.setAlpha((int) (baseAlpha + (255 - baseAlpha) * mBeatBoost));
+        mBeatBoost *= BEAT_BOOST_DECAY;
+        if (mBeatBoost < 0.01f) {
+            mBeatBoost = 0f;
+            mPaint.setAlpha(baseAlpha);
+        }
+    }
+
     @Override
     public void draw(Canvas canvas) {
-        canvas.drawBitmap(mCanvasBitmap, mMatrix, null);
+        if (mCanvasBitmap == null) {
+            return;
+        }
+        // an ALPHA_8 bitmap is drawn as a mask in the paint color
+        canvas.drawBitmap(mCanvasBitmap, mMatrix, mAlphaMask ? mTintPaint : null);
+    }
+
+    private void setBarColor(int color) {
+        mCurrentColor = color;
+        if (mAlphaMask) {
+            // only alpha lands in the mask, color is applied at composite time
+            // so fade history never carries stale colors
+            mPaint.setColor(applyPaintAlphaToColor(Color.WHITE));
+            mTintPaint.setColor(Color.rgb(Color.red(color), Color.green(color),
+                    Color.blue(color)));
+        } else {
+            mPaint.setColor(applyPaintAlphaToColor(color));
+        }
     }
 
     private int applyPaintAlphaToColor(int color) {
@@ -227,11 +291,19 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
                     Settings.Secure.getUriFor(Settings.Secure.PULSE_CUSTOM_FUDGE_FACTOR), false,
                     this,
                     UserHandle.USER_ALL);
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(PULSE_ALPHA_MASK_URI), false, this,
+                    UserHandle.USER_ALL);
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(AutoGain.PULSE_AUTO_GAIN_URI), false, this,
+                    UserHandle.USER_ALL);
         }
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
-            updateSettings();
+            synchronized (mLock) {
+                updateSettings();
+            }
         }
 
         public void updateSettings() {
@@ -243,8 +315,15 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
                     Settings.Secure.FLING_PULSE_COLOR,
                     mContext.getResources().getColor(R.color.config_pulseFillColor),
                     UserHandle.USER_CURRENT);
+            boolean alphaMask = Settings.Secure.getIntForUser(resolver,
+                    PULSE_ALPHA_MASK_URI, 1, UserHandle.USER_CURRENT) == 1;
+            if (mAlphaMask != alphaMask) {
+                mAlphaMask = alphaMask;
+                setBarColor(mCurrentColor);
+                onSizeChanged(0, 0, 0, 0);
+            }
             if (!mLavaLampEnabled) {
-                mPaint.setColor(applyPaintAlphaToColor(mUserColor));
+                setBarColor(mUserColor);
             }
             int time = Settings.Secure.getIntForUser(resolver,
                     Settings.Secure.FLING_PULSE_LAVALAMP_SPEED, 10000,
@@ -292,6 +371,13 @@ public class FadingBlockRenderer extends Renderer implements ColorAnimator.Color
             mPaint.setStrokeWidth(getLimitedDimenValue(customDimen, 1, 30, res));
             mDivisions = validateDivision(numDivision);
             mDbFuzzFactor = Math.max(2, Math.min(6, fudgeFactor));
+            // when on, bars scale to the track loudness and the fudge factor is ignored
+            boolean autoGain = Settings.Secure.getIntForUser(resolver,
+                    AutoGain.PULSE_AUTO_GAIN_URI, 0, UserHandle.USER_CURRENT) == 1;
+            if (mAutoGainEnabled != autoGain) {
+                mAutoGainEnabled = autoGain;
+                mAutoGain.reset();
+            }
         }
     }
 
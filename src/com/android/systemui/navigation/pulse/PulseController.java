@@ -38,6 +38,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.media.AudioManager;
 import android.media.IAudioService;
+import android.media.session.MediaSession;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
@@ -66,6 +67,22 @@ public class PulseController {
     private static final String TAG = PulseController.class.getSimpleName();
     private static final int RENDER_STYLE_LEGACY = 0;
     private static final int RENDER_STYLE_CM = 1;
+    private static final int RENDER_STYLE_SPECTROGRAM = 2;
+    // step lava lamp colors and pulse bar brightness on detected beats
+    public static final String PULSE_BEAT_SYNC_URI = "pulse_beat_sync";
+
+    // visualizer link states
+    private static final int LINK_STATE_UNLINKED = 0;
+    private static final int LINK_STATE_LINKED = 1;
+    // linked, but playback stopped. Unlink when grace period runs out
+    private static final int LINK_STATE_UNLINK_PENDING = 2;
+    // screen went off while playing. Capture is off but the session is kept warm
+    private static final int LINK_STATE_STANDBY = 3;
+
+    // coalesce bursts of link triggers (volume keys, flapping play state)
+    private static final int LINKAGE_DEBOUNCE_MILLIS = 100;
+    // transient pauses (track change, seek, buffering) shorter than this keep the link
+    private static final int UNLINK_GRACE_MILLIS = 2000;
 
     private Context mContext;
     private Handler mHandler;
@@ -74,12 +91,18 @@ public class PulseController {
     private Renderer mRenderer;
     private VisualizerStreamHandler mStreamHandler;
     private PulseObserver mPulseObserver;
+    private PulseLayer mPulseLayer;
+    private final Object mRenderLock = new Object();
+    private final BeatDetector mBeatDetector = new BeatDetector();
+    private boolean mBeatSyncEnabled;
     private SettingsObserver mSettingsObserver;
     private Bitmap mAlbumArt;
     private int mAlbumArtColor;
     private boolean mPulseEnabled;
     private boolean mKeyguardShowing;
-    private boolean mLinked;
+    private int mLinkState = LINK_STATE_UNLINKED;
+    private boolean mVisualizerLocked;
+    private MediaSession.Token mStandbyToken;
     private boolean mPowerSaveModeEnabled;
     private boolean mScreenOn;
     private boolean mMusicStreamMuted;
@@ -93,12 +116,7 @@ public class PulseController {
             if (PowerManager.ACTION_POWER_SAVE_MODE_CHANGING.equals(intent.getAction())) {
                 mPowerSaveModeEnabled = intent.getBooleanExtra(PowerManager.EXTRA_POWER_SAVE_MODE,
                         false);
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        doLinkage();
-                    }
-                });
+                requestLinkage();
             } else if (AudioManager.STREAM_MUTE_CHANGED_ACTION.equals(intent.getAction())
                     || (AudioManager.VOLUME_CHANGED_ACTION.equals(intent.getAction()))) {
                 int streamType = intent.getIntExtra(AudioManager.EXTRA_VOLUME_STREAM_TYPE, -1);
@@ -106,23 +124,39 @@ public class PulseController {
                     boolean muted = isMusicMuted(streamType);
                     if (mMusicStreamMuted != muted) {
                         mMusicStreamMuted = muted;
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                doLinkage();
-                            }
-                        });
+                        requestLinkage();
                     }
                 }
             }
         }
     };
 
+    private final Runnable mLinkageRunnable = new Runnable() {
+        @Override
+        public void run() {
+            doLinkage();
+        }
+    };
+
+    private final Runnable mGraceUnlinkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mLinkState == LINK_STATE_UNLINK_PENDING) {
+                doUnlinkVisualizer();
+            }
+        }
+    };
+
     private final VisualizerStreamHandler.Listener mStreamListener = new VisualizerStreamHandler.Listener() {
         @Override
         public void onStreamAnalyzed(boolean isValid) {
-            if (mRenderer != null) {
-                mRenderer.onStreamAnalyzed(isValid);
+            synchronized (mRenderLock) {
+                if (isValid) {
+                    mBeatDetector.reset();
+                }
+                if (mRenderer != null) {
+                    mRenderer.onStreamAnalyzed(isValid);
+                }
             }
             if (isValid) {
                 if (!mPulseObserver.onStartPulse(null)) {
@@ -135,19 +169,60 @@ public class PulseController {
 
         @Override
         public void onFFTUpdate(byte[] bytes) {
-            if (mRenderer != null) {
-                mRenderer.onFFTUpdate(bytes);
+            synchronized (mRenderLock) {
+                if (mRenderer != null) {
+                    // detect first so the renderer can react in this same frame
+                    if (mBeatSyncEnabled) {
+                        mBeatDetector.onFFTUpdate(bytes);
+                    }
+                    mRenderer.onFFTUpdate(bytes);
+                }
             }
         }
 
         @Override
         public void onWaveFormUpdate(byte[] bytes) {
-            if (mRenderer != null) {
-                mRenderer.onWaveFormUpdate(bytes);
+            synchronized (mRenderLock) {
+                if (mRenderer != null) {
+                    mRenderer.onWaveFormUpdate(bytes);
+                }
             }
         }
     };
 
+    // Renderers post frames here. If the navbar gave us a dedicated Pulse layer,
+    // frames go to its render thread and the navbar view is left alone
+    private final PulseObserver mFrameTarget = new PulseObserver() {
+        @Override
+        public int getWidth() {
+            return mPulseObserver.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mPulseObserver.getHeight();
+        }
+
+        @Override
+        public void postInvalidate() {
+            if (isLayerRendering()) {
+                mPulseLayer.requestRender();
+            } else {
+                mPulseObserver.postInvalidate();
+            }
+        }
+
+        @Override
+        public boolean onStartPulse(Animation animatePulseIn) {
+            return mPulseObserver.onStartPulse(animatePulseIn);
+        }
+
+        @Override
+        public void onStopPulse(Animation animatePulseOut) {
+            mPulseObserver.onStopPulse(animatePulseOut);
+        }
+    };
+
     private class SettingsObserver extends ContentObserver {
         public SettingsObserver(Handler handler) {
             super(handler);
@@ -160,24 +235,30 @@ public class PulseController {
             mContext.getContentResolver().registerContentObserver(
                     Settings.Secure.getUriFor(Settings.Secure.PULSE_RENDER_STYLE_URI), false, this,
                     UserHandle.USER_ALL);
+            mContext.getContentResolver().registerContentObserver(
+                    Settings.Secure.getUriFor(PULSE_BEAT_SYNC_URI), false, this,
+                    UserHandle.USER_ALL);
         }
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             if (uri.equals(Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_ENABLED))) {
                 updateEnabled();
-                doLinkage();
+                requestLinkage();
             } else if (uri.equals(Settings.Secure.getUriFor(Settings.Secure.PULSE_RENDER_STYLE_URI))) {
                 updateRenderMode();
                 if (mPulseObserver != null) {
                     loadRenderer();
                 }
+            } else if (uri.equals(Settings.Secure.getUriFor(PULSE_BEAT_SYNC_URI))) {
+                updateBeatSync();
             }
         }
 
         void updateSettings() {
             updateEnabled();
             updateRenderMode();
+            updateBeatSync();
         }
 
         void updateEnabled() {
@@ -189,11 +270,31 @@ public class PulseController {
             mPulseStyle = Settings.Secure.getIntForUser(mContext.getContentResolver(),
                     Settings.Secure.PULSE_RENDER_STYLE_URI, RENDER_STYLE_CM, UserHandle.USER_CURRENT);
         }
+
+        void updateBeatSync() {
+            boolean enabled = Settings.Secure.getIntForUser(mContext.getContentResolver(),
+                    PULSE_BEAT_SYNC_URI, 0, UserHandle.USER_CURRENT) == 1;
+            synchronized (mRenderLock) {
+                if (enabled && !mBeatSyncEnabled) {
+                    mBeatDetector.reset();
+                }
+                mBeatSyncEnabled = enabled;
+            }
+        }
     };
 
     public PulseController(Context context, Handler handler) {
         mContext = context;
         mHandler = handler;
+        mBeatDetector.setBeatListener(new BeatDetector.BeatListener() {
+            @Override
+            public void onBeat(float confidence) {
+                // called from onFFTUpdate, render lock is held
+                if (mRenderer != null) {
+                    mRenderer.onBeat(confidence);
+                }
+            }
+        });
         mSettingsObserver = new SettingsObserver(handler);
         mSettingsObserver.updateSettings();
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
@@ -205,7 +306,7 @@ public class PulseController {
         mMediaMonitor = new MediaMonitor(mContext) {
             @Override
             public void onPlayStateChanged(boolean playing) {
-                doLinkage();
+                requestLinkage();
             }
             @Override
             public void areMetadataChanged() {
@@ -239,44 +340,74 @@ public class PulseController {
         if (isRendering) {
             mStreamHandler.pause();
         }
-        if (mRenderer != null) {
-            mRenderer.destroy();
-            mRenderer = null;
+        synchronized (mRenderLock) {
+            if (mRenderer != null) {
+                mRenderer.destroy();
+                mRenderer = null;
+            }
+            mRenderer = getRenderer(mFrameTarget);
+            mRenderer.setLeftInLandscape(mLeftInLandscape);
         }
-        mRenderer = getRenderer(mPulseObserver);
-        mRenderer.setLeftInLandscape(mLeftInLandscape);
         if (isRendering) {
-            mRenderer.onStreamAnalyzed(true);
+            synchronized (mRenderLock) {
+                mRenderer.onStreamAnalyzed(true);
+            }
             mStreamHandler.resume();
         }
     }
 
+    /**
+     * Hand Pulse a surface of its own to render into. Pass null to fall
+     * back to drawing in the navbar view's onDraw
+     */
+    public void setPulseLayer(PulseLayer layer) {
+        if (mPulseLayer != null) {
+            mPulseLayer.setController(null);
+        }
+        mPulseLayer = layer;
+        if (mPulseLayer != null) {
+            mPulseLayer.setController(this);
+        }
+    }
+
+    /**
+     * @return true if Pulse frames are drawn by the Pulse layer render thread,
+     *         false if the navbar view should draw them in onDraw
+     */
+    public boolean isLayerRendering() {
+        return mPulseLayer != null && mPulseLayer.isSurfaceReady();
+    }
+
     public void setScreenPinningState(boolean enabled) {
         mScreenPinningEnabled = enabled;
     }
 
     public void setKeyguardShowing(boolean showing) {
         mKeyguardShowing = showing;
-        doLinkage();
+        requestLinkage();
     }
 
     public void notifyScreenOn(boolean screenOn) {
         mScreenOn = screenOn;
-        doLinkage();
+        requestLinkage();
     }
 
     public void setLeftInLandscape(boolean leftInLandscape) {
         if (mLeftInLandscape != leftInLandscape) {
             mLeftInLandscape = leftInLandscape;
-            if (mRenderer != null) {
-                mRenderer.setLeftInLandscape(leftInLandscape);
+            synchronized (mRenderLock) {
+                if (mRenderer != null) {
+                    mRenderer.setLeftInLandscape(leftInLandscape);
+                }
             }
         }
     }
 
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
-        if (mRenderer != null) {
-            mRenderer.onSizeChanged(w, h, oldw, oldh);
+        synchronized (mRenderLock) {
+            if (mRenderer != null) {
+                mRenderer.onSizeChanged(w, h, oldw, oldh);
+            }
         }
     }
 
@@ -293,7 +424,8 @@ public class PulseController {
      * @return true if bar elements should be hidden, false if not
      */
     public boolean shouldDrawPulse() {
-        return mLinked && mStreamHandler.isValidStream() && mRenderer != null;
+        return (mLinkState == LINK_STATE_LINKED || mLinkState == LINK_STATE_UNLINK_PENDING)
+                && mStreamHandler.isValidStream() && mRenderer != null;
     }
 
     public void turnOnPulse() {
@@ -303,36 +435,50 @@ public class PulseController {
     }
 
     public void onDraw(Canvas canvas) {
-        if (isPulseEnabled() && shouldDrawPulse()) {
-            mRenderer.draw(canvas);
+        synchronized (mRenderLock) {
+            if (isPulseEnabled() && shouldDrawPulse()) {
+                mRenderer.draw(canvas);
+            }
         }
     }
 
     public void doUnlinkVisualizer() {
+        mHandler.removeCallbacks(mGraceUnlinkRunnable);
         if (mStreamHandler != null) {
-            if (mLinked) {
+            if (mLinkState == LINK_STATE_STANDBY) {
+                // Pulse already stopped when we went to standby
+                doSilentUnlinkVisualizer();
+            } else if (mLinkState != LINK_STATE_UNLINKED) {
                 mStreamHandler.unlink();
-                setVisualizerLocked(false);
-                mLinked = false;
-                if (mRenderer != null) {
-                    mRenderer.onVisualizerLinkChanged(false);
-                }
+                updateVisualizerLock(false);
+                mLinkState = LINK_STATE_UNLINKED;
+                notifyVisualizerLinkChanged(false);
                 if (mPulseObserver != null) {
-                    mPulseObserver.postInvalidate();
+                    mFrameTarget.postInvalidate();
                     mPulseObserver.onStopPulse(null);
                 }
             }
         }
     }
 
+    private void notifyVisualizerLinkChanged(boolean linked) {
+        synchronized (mRenderLock) {
+            if (mRenderer != null) {
+                mRenderer.onVisualizerLinkChanged(linked);
+            }
+        }
+    }
+
     private Renderer getRenderer(PulseObserver observer) {
         switch (mPulseStyle) {
             case RENDER_STYLE_LEGACY:
-                return new FadingBlockRenderer(mContext, mHandler, observer);
+                return new FadingBlockRenderer(mContext, mHandler, observer, mRenderLock);
             case RENDER_STYLE_CM:
-                return new SolidLineRenderer(mContext, mHandler, observer);
+                return new SolidLineRenderer(mContext, mHandler, observer, mRenderLock);
+            case RENDER_STYLE_SPECTROGRAM:
+                return new SpectrogramRenderer(mContext, mHandler, observer, mRenderLock);
             default:
-                return new FadingBlockRenderer(mContext, mHandler, observer);
+                return new FadingBlockRenderer(mContext, mHandler, observer, mRenderLock);
         }
     }
 
@@ -352,6 +498,25 @@ public class PulseController {
         }
     }
 
+    /**
+     * Standby session timed out without the screen coming back
+     */
+    void onStandbyExpired() {
+        if (mLinkState == LINK_STATE_STANDBY) {
+            doSilentUnlinkVisualizer();
+        }
+    }
+
+    /**
+     * Talk to the audio service only when the lock state actually changes
+     */
+    private void updateVisualizerLock(boolean doLock) {
+        if (mVisualizerLocked != doLock) {
+            mVisualizerLocked = doLock;
+            setVisualizerLocked(doLock);
+        }
+    }
+
     /**
      * if any of these conditions are met, we unlink regardless of any other states
      *
@@ -376,7 +541,6 @@ public class PulseController {
                 && isPulseEnabled()
                 && mScreenOn
                 && mMediaMonitor.isAnythingPlaying()
-                && !mLinked
                 && !mPowerSaveModeEnabled
                 && !mKeyguardShowing
                 && !mMusicStreamMuted
@@ -384,24 +548,109 @@ public class PulseController {
     }
 
     /**
-     * Incoming event in which we need to
-     * toggle our link state.
+     * Screen off and keyguard are the only things stopping us and the same
+     * session keeps playing, so the visualizer is worth keeping warm
+     *
+     * @return true if a standby session may be kept
+     */
+    private boolean isStandbyAllowed() {
+        return mMediaMonitor != null
+                && isPulseEnabled()
+                && mMediaMonitor.isAnythingPlaying()
+                && mMediaMonitor.getPlayingSessionToken() != null
+                && !mPowerSaveModeEnabled
+                && !mMusicStreamMuted
+                && !mScreenPinningEnabled;
+    }
+
+    /**
+     * Incoming event in which we may need to toggle our link state.
+     * Triggers arriving within the debounce window are handled once
+     */
+    private void requestLinkage() {
+        mHandler.removeCallbacks(mLinkageRunnable);
+        mHandler.postDelayed(mLinkageRunnable, LINKAGE_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Move the link state machine. Mandatory unlink conditions take effect
+     * right away, playback stopping only after a grace period so transient
+     * pauses don't tear down the visualizer
      */
     private void doLinkage() {
-        if (isUnlinkRequired()) {
-            if (mLinked) {
-                // explicitly unlink
-                doUnlinkVisualizer();
-            }
-        } else {
-            if (isAbleToLink()) {
-                doLinkVisualizer();
-            } else if (mLinked) {
-                doUnlinkVisualizer();
-            }
+        switch (mLinkState) {
+            case LINK_STATE_UNLINKED:
+                if (!isUnlinkRequired() && isAbleToLink()) {
+                    doLinkVisualizer();
+                }
+                break;
+            case LINK_STATE_LINKED:
+                if (!mScreenOn && isStandbyAllowed()) {
+                    doStandbyVisualizer();
+                } else if (isUnlinkRequired()) {
+                    doUnlinkVisualizer();
+                } else if (!isAbleToLink()) {
+                    mLinkState = LINK_STATE_UNLINK_PENDING;
+                    mHandler.removeCallbacks(mGraceUnlinkRunnable);
+                    mHandler.postDelayed(mGraceUnlinkRunnable, UNLINK_GRACE_MILLIS);
+                }
+                break;
+            case LINK_STATE_UNLINK_PENDING:
+                if (isUnlinkRequired()) {
+                    doUnlinkVisualizer();
+                } else if (isAbleToLink()) {
+                    // playback came back within the grace period
+                    mHandler.removeCallbacks(mGraceUnlinkRunnable);
+                    mLinkState = LINK_STATE_LINKED;
+                }
+                break;
+            case LINK_STATE_STANDBY:
+                final boolean sameSession = mStandbyToken != null
+                        && mStandbyToken.equals(mMediaMonitor.getPlayingSessionToken());
+                if (!sameSession || !isStandbyAllowed()) {
+                    doSilentUnlinkVisualizer();
+                    if (!isUnlinkRequired() && isAbleToLink()) {
+                        doLinkVisualizer();
+                    }
+                } else if (!isUnlinkRequired() && isAbleToLink()) {
+                    doResumeVisualizer();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Screen is going off with music playing. Stop Pulse and capture but
+     * hold on to the visualizer session
+     */
+    private void doStandbyVisualizer() {
+        mHandler.removeCallbacks(mGraceUnlinkRunnable);
+        mStreamHandler.standby();
+        mStandbyToken = mMediaMonitor.getPlayingSessionToken();
+        mLinkState = LINK_STATE_STANDBY;
+        notifyVisualizerLinkChanged(false);
+        if (mPulseObserver != null) {
+            mFrameTarget.postInvalidate();
+            mPulseObserver.onStopPulse(null);
         }
     }
 
+    /**
+     * Pick up the standby session again. The stream revalidates on the
+     * next captured frame and Pulse starts from there
+     */
+    private void doResumeVisualizer() {
+        mStandbyToken = null;
+        if (!mStreamHandler.resumeFromStandby()) {
+            mLinkState = LINK_STATE_UNLINKED;
+            updateVisualizerLock(false);
+            doLinkVisualizer();
+            return;
+        }
+        mLinkState = LINK_STATE_LINKED;
+        notifyVisualizerLinkChanged(true);
+    }
+
     /**
      * Invalid media event not providing
      * a data stream to visualizer. Unlink
@@ -409,11 +658,13 @@ public class PulseController {
      * never happened
      */
     private void doSilentUnlinkVisualizer() {
+        mHandler.removeCallbacks(mGraceUnlinkRunnable);
+        mStandbyToken = null;
         if (mStreamHandler != null) {
-            if (mLinked) {
+            if (mLinkState != LINK_STATE_UNLINKED) {
                 mStreamHandler.unlink();
-                setVisualizerLocked(false);
-                mLinked = false;
+                updateVisualizerLock(false);
+                mLinkState = LINK_STATE_UNLINKED;
             }
         }
     }
@@ -424,13 +675,11 @@ public class PulseController {
      */
     private void doLinkVisualizer() {
         if (mStreamHandler != null) {
-            if (!mLinked) {
-                setVisualizerLocked(true);
+            if (mLinkState == LINK_STATE_UNLINKED) {
+                updateVisualizerLock(true);
                 mStreamHandler.link(0);
-                mLinked = true;
-                if (mRenderer != null) {
-                    mRenderer.onVisualizerLinkChanged(true);
-                }
+                mLinkState = LINK_STATE_LINKED;
+                notifyVisualizerLinkChanged(true);
             }
         }
     }
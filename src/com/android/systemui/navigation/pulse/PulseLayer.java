@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Pulse gets its own surface. Renderers draw into it from a dedicated
+ * render thread so the navbar view tree is never invalidated by Pulse
+ * frames and a slow UI thread doesn't hold up frame production. Renderer
+ * state is shared with the UI thread under the controller's render lock.
+ * A TextureView frame still reaches the screen with the next UI thread
+ * traversal, so a stalled UI thread delays what is shown. A SurfaceView
+ * would avoid that but can't blend under the navbar buttons
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff.Mode;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.view.TextureView;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+public class PulseLayer extends TextureView implements TextureView.SurfaceTextureListener {
+    private static final String TAG = PulseLayer.class.getSimpleName();
+
+    private static final int MSG_RENDER = 1;
+
+    private final HandlerThread mRenderThread;
+    private final Handler mRenderHandler;
+    private PulseController mController;
+    private volatile boolean mSurfaceReady;
+
+    private class RenderHandler extends Handler {
+        RenderHandler(HandlerThread thread) {
+            super(thread.getLooper());
+        }
+
+        @Override
+        public void handleMessage(Message m) {
+            switch (m.what) {
+                case MSG_RENDER:
+                    renderFrame();
+                    break;
+            }
+        }
+    }
+
+    public PulseLayer(Context context) {
+        super(context);
+        setOpaque(false);
+        setSurfaceTextureListener(this);
+        setLayoutParams(new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        mRenderThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mRenderThread.start();
+        mRenderHandler = new RenderHandler(mRenderThread);
+    }
+
+    public void setController(PulseController controller) {
+        mController = controller;
+    }
+
+    /**
+     * Called from the renderer frame governor. Frames requested while one
+     * is already pending are coalesced into it
+     */
+    public void requestRender() {
+        if (mSurfaceReady && !mRenderHandler.hasMessages(MSG_RENDER)) {
+            mRenderHandler.sendEmptyMessage(MSG_RENDER);
+        }
+    }
+
+    public boolean isSurfaceReady() {
+        return mSurfaceReady;
+    }
+
+    public void release() {
+        mSurfaceReady = false;
+        mRenderHandler.removeMessages(MSG_RENDER);
+        mRenderThread.quitSafely();
+    }
+
+    private void renderFrame() {
+        if (!mSurfaceReady || mController == null) {
+            return;
+        }
+        Canvas canvas = null;
+        try {
+            canvas = lockCanvas();
+            if (canvas == null) {
+                return;
+            }
+            canvas.drawColor(Color.TRANSPARENT, Mode.CLEAR);
+            mController.onDraw(canvas);
+        } finally {
+            if (canvas != null) {
+                unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+        mSurfaceReady = true;
+        requestRender();
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+        requestRender();
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        mSurfaceReady = false;
+        mRenderHandler.removeMessages(MSG_RENDER);
+        // wait out a frame that may be in flight before the texture goes away
+        mRenderHandler.runWithScissors(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 0);
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+    }
+}
@@ -31,17 +31,22 @@ public abstract class Renderer implements VisualizerStreamHandler.Listener {
     protected Context mContext;
     protected Handler mHandler;
     protected PulseObserver mCallback;
+    // held by Pulse while it feeds or draws this renderer. Anything that changes
+    // renderer state from another thread (settings, animators, ticks) takes it too
+    protected final Object mLock;
 
     private static final long ANIM_FPS_MAX = 40;
-    private static final long ANIM_FPS_TO_MILLIS = 1000 / ANIM_FPS_MAX;
+    // postInvalidate drops anything closer than this to the last frame
+    protected static final long ANIM_FPS_TO_MILLIS = 1000 / ANIM_FPS_MAX;
     private long mCurrentTime;
     private long mRenderCounter;
     private long mCurrentCounter;
 
-    public Renderer(Context context, Handler handler, PulseObserver callback) {
+    public Renderer(Context context, Handler handler, PulseObserver callback, Object lock) {
         mContext = context;
         mHandler = handler;
         mCallback = callback;
+        mLock = lock;
         mRenderCounter = System.currentTimeMillis();
     }
 
@@ -64,6 +69,12 @@ public abstract class Renderer implements VisualizerStreamHandler.Listener {
 
     public void onVisualizerLinkChanged(boolean linked) {}
 
+    /**
+     * A beat was detected in the current FFT frame. Only called when beat
+     * sync is enabled, on the same thread as onFFTUpdate
+     */
+    public void onBeat(float confidence) {}
+
     public void destroy() {}
 
     public void setLeftInLandscape(boolean leftInLandscape) {}
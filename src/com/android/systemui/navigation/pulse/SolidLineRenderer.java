@@ -22,7 +22,6 @@
 
 package com.android.systemui.navigation.pulse;
 
-import android.animation.ValueAnimator;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
@@ -33,23 +32,46 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.PorterDuff.Mode;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
+import android.util.TypedValue;
 
 import com.android.systemui.navigation.pulse.PulseController.PulseObserver;
 import com.android.systemui.navigation.utils.ColorAnimator;
 
 public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAnimationListener {
+    // fraction of a lava lamp sweep skipped on a full confidence beat
+    private static final float BEAT_COLOR_STEP = 0.125f;
+    // per frame falloff of the beat brightness boost
+    private static final float BEAT_BOOST_DECAY = 0.75f;
+    // attack and release of the bar motion. Release matches the old 128ms bar animators
+    private static final float ATTACK_MILLIS = 30f;
+    private static final float RELEASE_MILLIS = 128f;
+    // peak caps hold this long, then fall the full bar length in PEAK_FALL_MILLIS
+    private static final long PEAK_HOLD_MILLIS = 300;
+    private static final float PEAK_FALL_MILLIS = 1000f;
+    private static final int PEAK_CAP_DP = 2;
+    public static final String PULSE_SOLID_PEAK_HOLD_URI = "pulse_solid_peak_hold";
+
     private Paint mPaint;
     private Paint mFadePaint;
-    private ValueAnimator[] mValueAnimators;
+    private BandSmoother mSmoother;
     private float[] mFFTPoints;
+    private float[] mPeakPoints;
+    private float mPeakCapSize;
+    private boolean mPeakHoldEnabled;
+    private boolean mSmoothingScheduled;
     private int mColor;
+    private int mUnitsOpacity;
+    private float mBeatBoost;
 
     private byte rfk, ifk;
     private int dbValue;
     private float magnitude;
     private float mDbFuzzFactor;
+    private AutoGain mAutoGain;
+    private boolean mAutoGainEnabled;
     private boolean mVertical;
     private boolean mLeftInLandscape;
     private int mWidth, mHeight, mUnits;
@@ -59,8 +81,9 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
     private CMRendererObserver mObserver;
     private ColorAnimator mLavaLamp;
 
-    public SolidLineRenderer(Context context, Handler handler, PulseObserver callback) {
-        super(context, handler, callback);
+    public SolidLineRenderer(Context context, Handler handler, PulseObserver callback,
+            Object lock) {
+        super(context, handler, callback, lock);
         mColor = Color.TRANSPARENT;
         mLavaLamp = new ColorAnimator();
         mLavaLamp.setColorAnimatorListener(this);
@@ -70,11 +93,32 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
         mFadePaint = new Paint();
         mFadePaint.setXfermode(new PorterDuffXfermode(Mode.MULTIPLY));
         mDbFuzzFactor = 5f;
+        mAutoGain = new AutoGain();
+        mSmoother = new BandSmoother();
+        mSmoother.setAttackMillis(ATTACK_MILLIS);
+        mSmoother.setReleaseMillis(RELEASE_MILLIS);
+        mPeakCapSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, PEAK_CAP_DP,
+                context.getResources().getDisplayMetrics());
         mObserver = new CMRendererObserver(handler);
         mObserver.updateSettings();
-        loadValueAnimators();
     }
 
+    // keeps frames coming while bars are still easing toward their targets, at the
+    // rate postInvalidate lets through so no tick is wasted
+    private final Runnable mSmoothingTick = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                if (mSmoother.isSettled()) {
+                    mSmoothingScheduled = false;
+                    return;
+                }
+                postInvalidate();
+            }
+            mHandler.postDelayed(this, ANIM_FPS_TO_MILLIS);
+        }
+    };
+
     @Override
     public void setLeftInLandscape(boolean leftInLandscape) {
         if (mLeftInLandscape != leftInLandscape) {
@@ -83,33 +127,6 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
         }
     }
 
-    private void loadValueAnimators() {
-        if (mValueAnimators != null) {
-            for (int i = 0; i < mValueAnimators.length; i++) {
-                mValueAnimators[i].cancel();
-            }
-        }
-        mValueAnimators = new ValueAnimator[mUnits];
-        final boolean isVertical = mVertical;
-        for (int i = 0; i < mUnits; i++) {
-            final int j;
-            if (isVertical) {
-                j = i * 4;
-            } else {
-                j = i * 4 + 1;
-            }
-            mValueAnimators[i] = new ValueAnimator();
-            mValueAnimators[i].setDuration(128);
-            mValueAnimators[i].addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    mFFTPoints[j] = (float) animation.getAnimatedValue();
-                    postInvalidate();
-                }
-            });
-        }
-    }
-
     private void setPortraitPoints() {
         float units = Float.valueOf(mUnits);
         float barUnit = mWidth / units;
@@ -142,7 +159,8 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
             mWidth = mCallback.getWidth();
             mHeight = mCallback.getHeight();
             mVertical = mHeight > mWidth;
-            loadValueAnimators();
+            mSmoother.setSize(mUnits);
+            updatePeakHold();
             if (mVertical) {
                 setVerticalPoints();
             } else {
@@ -155,6 +173,7 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
     public void onStreamAnalyzed(boolean isValid) {
         mIsValidStream = isValid;
         if (isValid) {
+            mAutoGain.reset();
             onSizeChanged(0, 0, 0, 0);
             if (mLavaLampEnabled) {
                 mLavaLamp.start();
@@ -164,37 +183,99 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
 
     @Override
     public void onFFTUpdate(byte[] fft) {
-        for (int i = 0; i < mUnits; i++) {
-            mValueAnimators[i].cancel();
+        if (mBeatBoost > 0f) {
+            applyBeatBoost();
+        }
+        final int units = Math.min(mUnits, mSmoother.getSize());
+        for (int i = 0; i < units; i++) {
             rfk = fft[i * 2 + 2];
             ifk = fft[i * 2 + 3];
             magnitude = rfk * rfk + ifk * ifk;
             dbValue = magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
-            if (mVertical) {
-                if (mLeftInLandscape) {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            dbValue * mDbFuzzFactor);
-                } else {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            mFFTPoints[2] - (dbValue * mDbFuzzFactor));
-                }
-            } else {
-                mValueAnimators[i].setFloatValues(mFFTPoints[i * 4 + 1],
-                        mFFTPoints[3] - (dbValue * mDbFuzzFactor));
-            }
-            mValueAnimators[i].start();
+            final float barLength = mAutoGainEnabled
+                    ? mAutoGain.apply(dbValue, mVertical ? mWidth : mHeight)
+                    : dbValue * mDbFuzzFactor;
+            mSmoother.setTarget(i, barLength);
+        }
+        postInvalidate();
+        if (!mSmoothingScheduled) {
+            mSmoothingScheduled = true;
+            mHandler.postDelayed(mSmoothingTick, ANIM_FPS_TO_MILLIS);
+        }
+    }
+
+    /**
+     * Move the free end of a bar segment to the given length from its edge
+     */
+    private void setBarEnd(float[] points, int unit, float length) {
+        if (mVertical) {
+            points[unit * 4] = mLeftInLandscape ? length : mWidth - length;
+        } else {
+            points[unit * 4 + 1] = mHeight - length;
+        }
+    }
+
+    private void updatePeakHold() {
+        mSmoother.setPeakHold(mPeakHoldEnabled, PEAK_HOLD_MILLIS,
+                (mVertical ? mWidth : mHeight) * 1000f / PEAK_FALL_MILLIS);
+        if (mPeakHoldEnabled && mFFTPoints != null) {
+            mPeakPoints = new float[mFFTPoints.length];
+        } else {
+            mPeakPoints = null;
+        }
+    }
+
+    @Override
+    public void onBeat(float confidence) {
+        if (mLavaLamp.isRunning()) {
+            mLavaLamp.step(BEAT_COLOR_STEP * confidence);
+        }
+        mBeatBoost = Math.max(mBeatBoost, 0.5f + 0.5f * confidence);
+    }
+
+    private void applyBeatBoost() {
+        // lift the units opacity toward fully opaque, then let it fall back
+        mFadePaint.setColor(Color.argb((int) (mUnitsOpacity + (255 - mUnitsOpacity) * mBeatBoost),
+                255, 255, 255));
+        mBeatBoost *= BEAT_BOOST_DECAY;
+        if (mBeatBoost < 0.01f) {
+            mBeatBoost = 0f;
+            mFadePaint.setColor(Color.argb(mUnitsOpacity, 255, 255, 255));
         }
     }
 
     @Override
     public void draw(Canvas canvas) {
+        mSmoother.update(SystemClock.uptimeMillis());
+        final float[] peakPoints = mPeakPoints;
+        final int units = Math.min(mUnits, mSmoother.getSize());
+        for (int i = 0; i < units; i++) {
+            setBarEnd(mFFTPoints, i, mSmoother.getValue(i));
+            if (peakPoints != null) {
+                // cap is a short segment of the bar sitting at the held peak
+                final float peak = mSmoother.getPeak(i);
+                peakPoints[i * 4] = peakPoints[i * 4 + 2] = mFFTPoints[i * 4 + 2];
+                peakPoints[i * 4 + 1] = peakPoints[i * 4 + 3] = mFFTPoints[i * 4 + 3];
+                setBarEnd(peakPoints, i, peak + mPeakCapSize);
+                if (mVertical) {
+                    peakPoints[i * 4 + 2] = mLeftInLandscape ? peak : mWidth - peak;
+                } else {
+                    peakPoints[i * 4 + 3] = mHeight - peak;
+                }
+            }
+        }
         canvas.drawLines(mFFTPoints, mPaint);
+        if (peakPoints != null) {
+            canvas.drawLines(peakPoints, mPaint);
+        }
         canvas.drawPaint(mFadePaint);
     }
 
     @Override
     public void destroy() {
         mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mSmoothingTick);
+        mSmoothingScheduled = false;
         mLavaLamp.stop();
     }
 
@@ -207,7 +288,9 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
 
     @Override
     public void onColorChanged(ColorAnimator colorAnimator, int color) {
-        mPaint.setColor(color);
+        synchronized (mLock) {
+            mPaint.setColor(color);
+        }
     }
 
     @Override
@@ -216,7 +299,9 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
 
     @Override
     public void onStopAnimation(ColorAnimator colorAnimator, int lastColor) {
-        mPaint.setColor(mColor);
+        synchronized (mLock) {
+            mPaint.setColor(mColor);
+        }
     }
 
     private class CMRendererObserver extends ContentObserver {
@@ -246,11 +331,19 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
             resolver.registerContentObserver(
                     Settings.Secure.getUriFor(Settings.Secure.PULSE_SOLID_UNITS_OPACITY), false, this,
                     UserHandle.USER_ALL);
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(AutoGain.PULSE_AUTO_GAIN_URI), false, this,
+                    UserHandle.USER_ALL);
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(PULSE_SOLID_PEAK_HOLD_URI), false, this,
+                    UserHandle.USER_ALL);
         }
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
-            updateSettings();
+            synchronized (mLock) {
+                updateSettings();
+            }
         }
 
         public void updateSettings() {
@@ -277,20 +370,36 @@ public class SolidLineRenderer extends Renderer implements ColorAnimator.ColorAn
             mDbFuzzFactor = Settings.Secure.getIntForUser(
                     resolver, Settings.Secure.PULSE_SOLID_FUDGE_FACTOR, 5,
                     UserHandle.USER_CURRENT);
+            // when on, bars scale to the track loudness and the fudge factor is ignored
+            boolean autoGain = Settings.Secure.getIntForUser(resolver,
+                    AutoGain.PULSE_AUTO_GAIN_URI, 0, UserHandle.USER_CURRENT) == 1;
+            if (mAutoGainEnabled != autoGain) {
+                mAutoGainEnabled = autoGain;
+                mAutoGain.reset();
+            }
+
+            boolean peakHold = Settings.Secure.getIntForUser(resolver,
+                    PULSE_SOLID_PEAK_HOLD_URI, 0, UserHandle.USER_CURRENT) == 1;
+            if (mPeakHoldEnabled != peakHold) {
+                mPeakHoldEnabled = peakHold;
+                updatePeakHold();
+            }
 
-            int oldUnits = mUnits;
-            mUnits = Settings.Secure.getIntForUser(
+            int units = Settings.Secure.getIntForUser(
                     resolver, Settings.Secure.PULSE_SOLID_UNITS_COUNT, 64,
                     UserHandle.USER_CURRENT);
-            if (mUnits != oldUnits) {
-                mFFTPoints = new float[mUnits * 4];
+            if (units != mUnits) {
+                // points first, draw never sees a unit count larger than the array
+                mFFTPoints = new float[units * 4];
+                mUnits = units;
+                updatePeakHold();
                 onSizeChanged(0, 0, 0, 0);
             }
 
-            int solidUnitsColor = Settings.Secure.getIntForUser(
+            mUnitsOpacity = Settings.Secure.getIntForUser(
                     resolver, Settings.Secure.PULSE_SOLID_UNITS_OPACITY, 200,
                     UserHandle.USER_CURRENT);
-            mFadePaint.setColor(Color.argb(solidUnitsColor, 255, 255, 255));
+            mFadePaint.setColor(Color.argb(mUnitsOpacity, 255, 255, 255));
         }
     }
 }
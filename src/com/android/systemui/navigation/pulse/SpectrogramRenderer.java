@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Scrolling spectrogram. Each FFT frame becomes one column of palette
+ * indices in a ring buffer. Only the new column is written to a small
+ * ring bitmap which is composited scaled up, split at the ring head
+ *
+ */
+
+package com.android.systemui.navigation.pulse;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.UserHandle;
+import android.provider.Settings;
+
+import com.android.systemui.navigation.pulse.PulseController.PulseObserver;
+
+public class SpectrogramRenderer extends Renderer {
+    public static final String PULSE_SPECTROGRAM_BANDS_URI = "pulse_spectrogram_bands";
+    public static final String PULSE_SPECTROGRAM_HISTORY_URI = "pulse_spectrogram_history";
+
+    private static final int PALETTE_SIZE = 256;
+    // 10 * log10(2 * 128^2), the loudest a single bin can get
+    private static final float DB_MAX = 45f;
+    private static final int BANDS_DEF = 32;
+    private static final int BANDS_MIN = 8;
+    private static final int BANDS_MAX = 64;
+    private static final int HISTORY_DEF = 96;
+    private static final int HISTORY_MIN = 32;
+    private static final int HISTORY_MAX = 256;
+
+    private final int[] mPalette = new int[PALETTE_SIZE];
+    private final Paint mPaint = new Paint();
+    private final Rect mSrc = new Rect();
+    private final RectF mDst = new RectF();
+
+    // ring buffer of palette indices, mColumns columns of mBands each
+    private byte[] mHistory;
+    // scratch for the column being written to the ring bitmap
+    private int[] mColumnPixels;
+    private Bitmap mRingBitmap;
+    private int mHead;
+    private int mBands;
+    private int mColumns;
+    private int mFromColor;
+    private int mToColor;
+
+    private byte rfk, ifk;
+    private float magnitude;
+    private boolean mVertical;
+    private boolean mLeftInLandscape;
+    private int mWidth;
+    private int mHeight;
+    private SpectrogramObserver mObserver;
+
+    public SpectrogramRenderer(Context context, Handler handler, PulseObserver callback,
+            Object lock) {
+        super(context, handler, callback, lock);
+        // hard pixel edges when scaling the ring bitmap up
+        mPaint.setFilterBitmap(false);
+        mObserver = new SpectrogramObserver(handler);
+        mObserver.updateSettings();
+    }
+
+    @Override
+    public void onStreamAnalyzed(boolean isValid) {
+        if (isValid) {
+            onSizeChanged(0, 0, 0, 0);
+        }
+    }
+
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        if (mCallback.getWidth() > 0 && mCallback.getHeight() > 0) {
+            mWidth = mCallback.getWidth();
+            mHeight = mCallback.getHeight();
+            final boolean vertical = mHeight > mWidth;
+            if (vertical != mVertical || mRingBitmap == null) {
+                mVertical = vertical;
+                createRing();
+            }
+        }
+    }
+
+    @Override
+    public void setLeftInLandscape(boolean leftInLandscape) {
+        if (mLeftInLandscape != leftInLandscape) {
+            mLeftInLandscape = leftInLandscape;
+            repaintHistory();
+        }
+    }
+
+    @Override
+    public void onFFTUpdate(byte[] fft) {
+        if (mRingBitmap == null || fft == null) {
+            return;
+        }
+        final int bins = (fft.length - 2) / 2;
+        final int offset = mHead * mBands;
+        for (int i = 0; i < mBands; i++) {
+            // spread the bands over the lower half of the spectrum where the music is
+            final int bin = i * bins / (mBands * 2);
+            rfk = fft[bin * 2 + 2];
+            ifk = fft[bin * 2 + 3];
+            magnitude = rfk * rfk + ifk * ifk;
+            int index = 0;
+            if (magnitude > 0) {
+                index = (int) (10 * Math.log10(magnitude) * (PALETTE_SIZE - 1) / DB_MAX);
+                index = Math.max(0, Math.min(PALETTE_SIZE - 1, index));
+            }
+            mHistory[offset + i] = (byte) index;
+        }
+        writeColumn(mHead);
+        mHead = (mHead + 1) % mColumns;
+        postInvalidate();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Bitmap ring = mRingBitmap;
+        if (ring == null) {
+            return;
+        }
+        // oldest column sits at the ring head. Draw head..end first, then 0..head
+        final int older = mColumns - mHead;
+        if (mVertical) {
+            final float rowHeight = (float) mHeight / mColumns;
+            mSrc.set(0, mHead, mBands, mColumns);
+            mDst.set(0, 0, mWidth, older * rowHeight);
+            canvas.drawBitmap(ring, mSrc, mDst, mPaint);
+            if (mHead > 0) {
+                mSrc.set(0, 0, mBands, mHead);
+                mDst.set(0, older * rowHeight, mWidth, mHeight);
+                canvas.drawBitmap(ring, mSrc, mDst, mPaint);
+            }
+        } else {
+            final float columnWidth = (float) mWidth / mColumns;
+            mSrc.set(mHead, 0, mColumns, mBands);
+            mDst.set(0, 0, older * columnWidth, mHeight);
+            canvas.drawBitmap(ring, mSrc, mDst, mPaint);
+            if (mHead > 0) {
+                mSrc.set(0, 0, mHead, mBands);
+                mDst.set(older * columnWidth, 0, mWidth, mHeight);
+                canvas.drawBitmap(ring, mSrc, mDst, mPaint);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mRingBitmap = null;
+    }
+
+    // called with mLock held, draw sees either the old ring or the new one
+    private void createRing() {
+        mHistory = new byte[mColumns * mBands];
+        mColumnPixels = new int[mBands];
+        mHead = 0;
+        mRingBitmap = mVertical
+                ? Bitmap.createBitmap(mBands, mColumns, Config.ARGB_8888)
+                : Bitmap.createBitmap(mColumns, mBands, Config.ARGB_8888);
+    }
+
+    /**
+     * Write one history column into the ring bitmap. Low frequencies sit
+     * on the edge of the bar facing the screen edge
+     */
+    private void writeColumn(int column) {
+        final int offset = column * mBands;
+        for (int i = 0; i < mBands; i++) {
+            final int pixel = mVertical
+                    ? (mLeftInLandscape ? i : mBands - 1 - i)
+                    : mBands - 1 - i;
+            mColumnPixels[pixel] = mPalette[mHistory[offset + i] & 0xff];
+        }
+        if (mVertical) {
+            mRingBitmap.setPixels(mColumnPixels, 0, mBands, 0, column, mBands, 1);
+        } else {
+            mRingBitmap.setPixels(mColumnPixels, 0, 1, column, 0, 1, mBands);
+        }
+    }
+
+    private void repaintHistory() {
+        if (mRingBitmap == null) {
+            return;
+        }
+        for (int i = 0; i < mColumns; i++) {
+            writeColumn(i);
+        }
+    }
+
+    /**
+     * Precompute magnitude to color. Quiet is transparent, loud is opaque
+     * and blends from the start color to the end color
+     */
+    private void buildPalette() {
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            final float t = (float) i / (PALETTE_SIZE - 1);
+            final int r = (int) (Color.red(mFromColor)
+                    + (Color.red(mToColor) - Color.red(mFromColor)) * t);
+            final int g = (int) (Color.green(mFromColor)
+                    + (Color.green(mToColor) - Color.green(mFromColor)) * t);
+            final int b = (int) (Color.blue(mFromColor)
+                    + (Color.blue(mToColor) - Color.blue(mFromColor)) * t);
+            mPalette[i] = Color.argb((int) (255 * t), r, g, b);
+        }
+    }
+
+    private class SpectrogramObserver extends ContentObserver {
+        public SpectrogramObserver(Handler handler) {
+            super(handler);
+            register();
+        }
+
+        void register() {
+            ContentResolver resolver = mContext.getContentResolver();
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_FROM),
+                    false, this, UserHandle.USER_ALL);
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_TO),
+                    false, this, UserHandle.USER_ALL);
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(PULSE_SPECTROGRAM_BANDS_URI), false, this,
+                    UserHandle.USER_ALL);
+            resolver.registerContentObserver(
+                    Settings.Secure.getUriFor(PULSE_SPECTROGRAM_HISTORY_URI), false, this,
+                    UserHandle.USER_ALL);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // resizes and repaints the ring the render thread is drawing from
+            synchronized (mLock) {
+                updateSettings();
+            }
+        }
+
+        public void updateSettings() {
+            ContentResolver resolver = mContext.getContentResolver();
+            mFromColor = Settings.Secure.getIntForUser(resolver,
+                    Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_FROM, 0xffff8080,
+                    UserHandle.USER_CURRENT);
+            mToColor = Settings.Secure.getIntForUser(resolver,
+                    Settings.Secure.FLING_PULSE_LAVALAMP_COLOR_TO, 0xff8080ff,
+                    UserHandle.USER_CURRENT);
+            buildPalette();
+
+            int bands = Settings.Secure.getIntForUser(resolver,
+                    PULSE_SPECTROGRAM_BANDS_URI, BANDS_DEF, UserHandle.USER_CURRENT);
+            int columns = Settings.Secure.getIntForUser(resolver,
+                    PULSE_SPECTROGRAM_HISTORY_URI, HISTORY_DEF, UserHandle.USER_CURRENT);
+            bands = Math.max(BANDS_MIN, Math.min(BANDS_MAX, bands));
+            columns = Math.max(HISTORY_MIN, Math.min(HISTORY_MAX, columns));
+            if (bands != mBands || columns != mColumns) {
+                mBands = bands;
+                mColumns = columns;
+                mRingBitmap = null;
+                onSizeChanged(0, 0, 0, 0);
+            } else {
+                repaintHistory();
+            }
+        }
+    }
+}
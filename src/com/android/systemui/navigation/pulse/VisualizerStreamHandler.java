@@ -42,9 +42,12 @@ public class VisualizerStreamHandler {
 
     protected static final int MSG_STREAM_VALID = 55;
     protected static final int MSG_STREAM_INVALID = 56;
+    protected static final int MSG_STANDBY_EXPIRED = 57;
     // we have 6 seconds to get three consecutive valid frames
     protected static final int VALIDATION_TIME_MILLIS = 6000;
     protected static final int VALID_BYTES_THRESHOLD = 3;
+    // how long a visualizer in standby is kept before it is released for real
+    protected static final int STANDBY_TIMEOUT_MILLIS = 30 * 1000;
 
     protected Visualizer mVisualizer;
     protected int mAudioSessionId;
@@ -55,6 +58,7 @@ public class VisualizerStreamHandler {
     protected boolean mIsAnalyzed;
     protected boolean mIsPrepared;
     protected boolean mIsPaused;
+    protected boolean mIsStandby;
 
     protected Context mContext;
     protected PulseController mController;
@@ -76,6 +80,9 @@ public class VisualizerStreamHandler {
                     mIsPrepared = false;
                     mListener.onStreamAnalyzed(false);
                     break;
+                case MSG_STANDBY_EXPIRED:
+                    mController.onStandbyExpired();
+                    break;
             }
         }
     };
@@ -93,6 +100,8 @@ public class VisualizerStreamHandler {
      * @param player - MediaPlayer instance to link to
      */
     public final void link(int audioSessionId) {
+        mHandler.removeMessages(MSG_STANDBY_EXPIRED);
+        mIsStandby = false;
         if (mVisualizer != null && audioSessionId != mAudioSessionId) {
             mVisualizer.setEnabled(false);
             mVisualizer.release();
@@ -142,6 +151,8 @@ public class VisualizerStreamHandler {
     }
 
     public final void unlink() {
+        mHandler.removeMessages(MSG_STANDBY_EXPIRED);
+        mIsStandby = false;
         if (mVisualizer != null) {
             pause();
             mVisualizer.setEnabled(false);
@@ -151,6 +162,52 @@ public class VisualizerStreamHandler {
         }
     }
 
+    /**
+     * Stop capturing but keep the visualizer session around for a while.
+     * A stream that was already validated only needs one more non-empty
+     * frame after {@link #resumeFromStandby()} to be valid again
+     */
+    public final void standby() {
+        if (mVisualizer == null || mIsStandby) {
+            return;
+        }
+        pause();
+        mVisualizer.setEnabled(false);
+        final boolean wasValidated = isValidStream();
+        resetAnalyzer();
+        mHandler.removeMessages(MSG_STREAM_VALID);
+        mHandler.removeMessages(MSG_STREAM_INVALID);
+        if (wasValidated) {
+            mConsecutiveFrames = VALID_BYTES_THRESHOLD - 1;
+        }
+        mIsStandby = true;
+        mHandler.sendEmptyMessageDelayed(MSG_STANDBY_EXPIRED, STANDBY_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @return true if capture resumed on the standby session, false if
+     *         there was none and the caller must link again
+     */
+    public final boolean resumeFromStandby() {
+        if (mVisualizer == null || !mIsStandby) {
+            return false;
+        }
+        mHandler.removeMessages(MSG_STANDBY_EXPIRED);
+        mIsStandby = false;
+        try {
+            mVisualizer.setEnabled(true);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error resuming visualizer from standby", e);
+            unlink();
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isStandby() {
+        return mIsStandby;
+    }
+
     public boolean isValidStream() {
         return mIsAnalyzed && mIsValidated;
     }
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Decides when a button should preload recents. Counts how this button's
+ * presses end, single tap, double tap or long press, and calls recents
+ * likely when the outcomes bound to recents make up most of them. Until
+ * there is enough history a press is assumed to end as a single tap.
+ * Counts are halved now and then so the predictor follows the user
+ *
+ */
+
+package com.android.systemui.navigation.smartbar;
+
+public class RecentsPreloadPredictor {
+    public static final int OUTCOME_SINGLE = 0;
+    public static final int OUTCOME_DOUBLE = 1;
+    public static final int OUTCOME_LONG = 2;
+    private static final int OUTCOME_COUNT = 3;
+
+    // presses needed before the counts are trusted
+    private static final int MIN_SAMPLES = 8;
+    // halve the counts once they add up to this
+    private static final int DECAY_AT = 64;
+    // share of presses that must end in recents to preload
+    private static final float LIKELY = 0.5f;
+
+    private final int[] mCounts = new int[OUTCOME_COUNT];
+    private int mTotal;
+    // which outcomes open recents, from the button config
+    private final boolean[] mIsRecents = new boolean[OUTCOME_COUNT];
+    private boolean mPreloaded;
+
+    public void setRecentsOutcomes(boolean single, boolean doubleTap, boolean longPress) {
+        mIsRecents[OUTCOME_SINGLE] = single;
+        mIsRecents[OUTCOME_DOUBLE] = doubleTap;
+        mIsRecents[OUTCOME_LONG] = longPress;
+    }
+
+    public boolean hasRecentsOutcome() {
+        return mIsRecents[OUTCOME_SINGLE] || mIsRecents[OUTCOME_DOUBLE]
+                || mIsRecents[OUTCOME_LONG];
+    }
+
+    public boolean isRecentsOutcome(int outcome) {
+        return mIsRecents[outcome];
+    }
+
+    /**
+     * A new press went down, forget what was preloaded for the last one
+     */
+    public void onPressStart() {
+        mPreloaded = false;
+    }
+
+    public void onOutcome(int outcome) {
+        mCounts[outcome]++;
+        mTotal++;
+        if (mTotal >= DECAY_AT) {
+            mTotal = 0;
+            for (int i = 0; i < OUTCOME_COUNT; i++) {
+                mCounts[i] >>= 1;
+                mTotal += mCounts[i];
+            }
+        }
+    }
+
+    /**
+     * @return true if a press just started is likely to open recents
+     */
+    public boolean isLikelyOnDown() {
+        if (mTotal < MIN_SAMPLES) {
+            return mIsRecents[OUTCOME_SINGLE];
+        }
+        int recents = 0;
+        for (int i = 0; i < OUTCOME_COUNT; i++) {
+            if (mIsRecents[i]) {
+                recents += mCounts[i];
+            }
+        }
+        return recents >= mTotal * LIKELY;
+    }
+
+    /**
+     * @return true if a tap waiting for a second one is likely to become a
+     *         double tap that opens recents
+     */
+    public boolean isLikelyAfterTap() {
+        if (!mIsRecents[OUTCOME_DOUBLE]) {
+            return false;
+        }
+        final int taps = mCounts[OUTCOME_SINGLE] + mCounts[OUTCOME_DOUBLE];
+        if (mTotal < MIN_SAMPLES || taps == 0) {
+            return false;
+        }
+        return mCounts[OUTCOME_DOUBLE] >= taps * LIKELY;
+    }
+
+    /**
+     * @return true if the caller should preload now, at most once per press
+     */
+    public boolean claimPreload() {
+        if (mPreloaded) {
+            return false;
+        }
+        mPreloaded = true;
+        return true;
+    }
+}
@@ -71,6 +71,7 @@ import com.android.systemui.navigation.smartbar.SmartBarView;
 import com.android.systemui.navigation.smartbar.SmartButtonView;
 import com.android.systemui.navigation.utils.MediaMonitor;
 import com.android.systemui.navigation.utils.SmartObserver.SmartObservable;
+import com.android.systemui.navigation.utils.TapTimingModel;
 import com.android.systemui.singlehandmode.SlideTouchEvent;
 import com.android.systemui.statusbar.phone.BarTransitions;
 import com.android.systemui.R;
@@ -99,6 +100,7 @@ public class SmartBarView extends BaseNavigationBar {
         sUris.add(Settings.System.getUriFor(Settings.System.SMARTBAR_DOUBLETAP_SLEEP));
         sUris.add(Settings.Secure.getUriFor(Settings.Secure.ONE_HANDED_MODE_UI));
 		sUris.add(Settings.Secure.getUriFor(Settings.Secure.PULSE_CUSTOM_BUTTONS_OPACITY));
+        sUris.add(Settings.Secure.getUriFor(TapTimingModel.NAVBAR_ADAPTIVE_TIMING_URI));
     }
 
     private SmartObservable mObservable = new SmartObservable() {
@@ -124,6 +126,8 @@ public class SmartBarView extends BaseNavigationBar {
                 updateOneHandedModeSetting();
 			} else if (uri.equals(Settings.Secure.getUriFor(Settings.Secure.PULSE_CUSTOM_BUTTONS_OPACITY))) {
                 updatePulseNavButtonsOpacity();
+            } else if (uri.equals(Settings.Secure.getUriFor(TapTimingModel.NAVBAR_ADAPTIVE_TIMING_URI))) {
+                updateAdaptiveTimingSetting();
             }
         }
     };
@@ -252,6 +256,7 @@ public class SmartBarView extends BaseNavigationBar {
         updateContextLayoutSettings();
         updateNavDoubletapSetting();
         updateOneHandedModeSetting();
+        updateAdaptiveTimingSetting();
     }
 
     @Override
@@ -25,9 +25,10 @@ import com.android.internal.utils.du.ActionHandler;
 import com.android.internal.utils.du.Config.ActionConfig;
 import com.android.internal.utils.du.Config.ButtonConfig;
 import com.android.systemui.navigation.Res;
-import com.facebook.rebound.Spring;
-import com.facebook.rebound.SpringConfig;
-import com.facebook.rebound.SpringListener;
+import com.android.systemui.navigation.utils.ActionExecutor;
+import com.android.systemui.navigation.utils.LatencyTracker;
+import com.android.systemui.navigation.utils.NavbarSpringSolver;
+import com.android.systemui.navigation.utils.TapTimingModel;
 
 import android.animation.ObjectAnimator;
 import android.content.Context;
@@ -54,10 +55,14 @@ public class SmartButtonView extends ImageView {
     // AOSP values feel rather slow, shave off some slack
     private static int sLongPressTimeout = LP_TIMEOUT + 100;
     private static int sDoubleTapTimeout = DT_TIMEOUT - 100;
-
-    // Rebound spring config
-    private static double TENSION = 140;
-    private static double FRICTION = 12;
+    // preload this long before a recents long press fires
+    private static final int PRELOAD_LEAD = 200;
+
+    // press spring config
+    private static final float TENSION = 140f;
+    private static final float FRICTION = 12f;
+    // scale lost when fully pressed
+    private static final float SPRING_SCALE = 0.5f;
     public static final int ANIM_STYLE_RIPPLE = 0;
     public static final int ANIM_STYLE_SPRING = 1;
     public static final int ANIM_STYLE_FLIP = 2;
@@ -66,7 +71,16 @@ public class SmartButtonView extends ImageView {
     public static final int ANIM_STYLE_PIXEL_HOME_RIPPLE = 5;
 
     private boolean isDoubleTapPending;
+    // last plain tap, for the adaptive timing model
+    private long mLastTapUpTime;
+    private boolean mHasLastTap;
+    // latency stamps, the down of the current press and the up of a deferred tap
+    private long mPressDownTime;
+    private long mPendingTapTime;
+    // the current press fired its long press
+    private boolean mLongPressFired;
     private boolean wasConsumed;
+    private final RecentsPreloadPredictor mPreloadPredictor = new RecentsPreloadPredictor();
     private boolean mInEditMode;
     private boolean mScreenPinningEnabled;
     private int mAnimStyle = 0;
@@ -75,26 +89,8 @@ public class SmartButtonView extends ImageView {
     private SmartBarView mHost;
     View.OnLongClickListener mLongPressBackListener;
 
-    private Spring mSpring;
-    private SpringListener mSpringListener = new SpringListener() {
-
-        @Override
-        public void onSpringActivate(Spring arg0) {}
-
-        @Override
-        public void onSpringAtRest(Spring arg0) {}
-
-        @Override
-        public void onSpringEndStateChange(Spring arg0) {}
-
-        @Override
-        public void onSpringUpdate(Spring spring) {
-            float value = (float) spring.getCurrentValue();
-            float scale = 1f - (value * 0.5f);
-            setScaleX(scale);
-            setScaleY(scale);
-        }
-    };
+    // slot in the navbar's shared spring solver
+    private int mSpring = NavbarSpringSolver.NO_SPRING;
 
     public SmartButtonView(Context context) {
         this(context, null);
@@ -186,40 +182,56 @@ public class SmartButtonView extends ImageView {
     }
 
     private void setSpringEnabled(boolean enabled) {
+        final NavbarSpringSolver solver = mHost.getSpringSolver();
         if (enabled) {
-            mSpring = mHost.getSpringSystem().createSpring();
-            mSpring.addListener(mSpringListener);
-            SpringConfig config = new SpringConfig(TENSION, FRICTION);
-            mSpring.setSpringConfig(config);
+            if (mSpring == NavbarSpringSolver.NO_SPRING) {
+                mSpring = solver.add(this, TENSION, FRICTION, SPRING_SCALE);
+            }
         } else {
-            if (mSpring != null) {
+            if (mSpring != NavbarSpringSolver.NO_SPRING) {
                 if (getScaleX() != 1f || getScaleY() != 1f) {
-                    mSpring.setCurrentValue(0f);
+                    solver.setCurrentValue(mSpring, 0f);
                 }
-                mSpring.removeListener(mSpringListener);
-                mSpring.destroy();
-                mSpring = null;
+                solver.remove(mSpring);
+                mSpring = NavbarSpringSolver.NO_SPRING;
             }
         }
     }
 
-    private void fireActionIfSecure(String action) {
-        final boolean keyguardShowing = mHost.isKeyguardShowing();
-        if (!keyguardShowing
-                || (keyguardShowing && ActionHandler.SYSTEMUI_TASK_BACK.equals(action))) {
-             ActionHandler.performTask(mContext, action);
+    private final ActionExecutor.ActionValidator mActionValidator =
+            new ActionExecutor.ActionValidator() {
+        @Override
+        public boolean isActionAllowed(String action) {
+            return isSecureAction(action);
+        }
+    };
+
+    /**
+     * @param touchTime event time of the touch that completed this gesture
+     */
+    private void fireActionIfSecure(String action, int latencyGesture, long touchTime) {
+        if (isSecureAction(action)) {
+            ActionExecutor.getInstance().execute(mContext, action, mActionValidator,
+                    mHost.getLatencyTracker(), latencyGesture, touchTime);
         }
     }
 
+    // checked on touch and again on the action worker, keyguard may show in between
+    private boolean isSecureAction(String action) {
+        final boolean keyguardShowing = mHost.isKeyguardShowing();
+        return !keyguardShowing
+                || (keyguardShowing && ActionHandler.SYSTEMUI_TASK_BACK.equals(action));
+    }
+
     public void loadRipple() {
         setBackground(new SmartButtonRipple(mContext, this));
     }
 
     public void setEditMode(boolean editMode) {
         mInEditMode = editMode;
-        if (editMode && mSpring != null) {
+        if (editMode && mSpring != NavbarSpringSolver.NO_SPRING) {
             if (getScaleX() != 1f || getScaleY() != 1f) {
-                mSpring.setCurrentValue(0f);
+                mHost.getSpringSolver().setCurrentValue(mSpring, 0f);
             }
         }
         if (getParent() != null && getParent() instanceof OpaLayout) {
@@ -240,6 +252,8 @@ public class SmartButtonView extends ImageView {
         mConfig = config;
         setTag(config.getTag());
         setLongClickable(hasLongAction());
+        mPreloadPredictor.setRecentsOutcomes(hasRecentsSingle(), hasRecentsDouble(),
+                hasRecentsLong());
     }
 
     private boolean hasSingleAction() {
@@ -255,7 +269,13 @@ public class SmartButtonView extends ImageView {
     }
 
     private boolean hasRecentAction() {
-        return hasRecentsSingle() || hasRecentsLong() || hasRecentsDouble();
+        return mPreloadPredictor.hasRecentsOutcome();
+    }
+
+    private void preloadRecents() {
+        if (mPreloadPredictor.claimPreload()) {
+            ActionHandler.preloadRecentApps();
+        }
     }
 
     private boolean hasRecentsSingle() {
@@ -275,19 +295,12 @@ public class SmartButtonView extends ImageView {
     }
 
     // special case: double tap for screen off we never capture up motion event
-    // reset spring value and add/remove listeners if screen on/off
+    // settle the spring at rest, nothing should animate across screen on/off
     public void onScreenStateChanged(boolean screenOn) {
         wasConsumed = false;
         setPressed(false);
-        if (mSpring != null) {
-            if (screenOn) {
-                mSpring.addListener(mSpringListener);
-                if (getScaleX() != 1f || getScaleY() != 1f) {
-                    mSpring.setCurrentValue(0f);
-                }
-            } else {
-                mSpring.removeListener(mSpringListener);
-            }
+        if (mSpring != NavbarSpringSolver.NO_SPRING) {
+            mHost.getSpringSolver().setCurrentValue(mSpring, 0f);
         }
     }
 
@@ -312,28 +325,47 @@ public class SmartButtonView extends ImageView {
 
         switch (action) {
             case MotionEvent.ACTION_DOWN:
+                if (mHasLastTap) {
+                    mHasLastTap = false;
+                    final long interval = ev.getEventTime() - mLastTapUpTime;
+                    if (interval <= sDoubleTapTimeout) {
+                        mHost.getTapTimingModel().onTapInterval(interval);
+                    }
+                }
                 setPressed(true);
                 if (opa != null) {
                     opa.startDownAction();
                 }
                 checkAndDoFlipAnim();
-                if (mSpring != null) {
-                    mSpring.setEndValue(1f);
+                if (mSpring != NavbarSpringSolver.NO_SPRING) {
+                    mHost.getSpringSolver().setEndValue(mSpring, 1f);
                 }
                 performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
                 if (isDoubleTapPending) {
                     isDoubleTapPending = false;
                     wasConsumed = true;
                     removeCallbacks(mDoubleTapTimeout);
-                    doDoubleTap();
+                    doDoubleTap(ev.getEventTime());
                 } else {
                     wasConsumed = false;
+                    mLongPressFired = false;
+                    mPressDownTime = ev.getEventTime();
+                    mPreloadPredictor.onPressStart();
+                    final int longPressTimeout =
+                            mHost.getTapTimingModel().getLongPressTimeout(sLongPressTimeout);
                     if (hasRecentAction()) {
-                        ActionHandler.preloadRecentApps();
+                        // preload only when this press will likely end in recents
+                        if (mPreloadPredictor.isLikelyOnDown()) {
+                            preloadRecents();
+                        } else if (hasRecentsLong() && !mScreenPinningEnabled) {
+                            removeCallbacks(mPreloadForLongPress);
+                            postDelayed(mPreloadForLongPress,
+                                    Math.max(0, longPressTimeout - PRELOAD_LEAD));
+                        }
                     }
                     if (hasLongAction() || mScreenPinningEnabled) {
                         removeCallbacks(mCheckLongPress);
-                        postDelayed(mCheckLongPress, sLongPressTimeout);
+                        postDelayed(mCheckLongPress, longPressTimeout);
                     }
                 }
                 break;
@@ -341,15 +373,17 @@ public class SmartButtonView extends ImageView {
                 if (hasLongAction() || mScreenPinningEnabled) {
                     removeCallbacks(mCheckLongPress);
                 }
+                removeCallbacks(mPreloadForLongPress);
                 removeCallbacks(mDoubleTapTimeout);
                 wasConsumed = true;
+                mLongPressFired = false;
                 isDoubleTapPending = false;
                 setPressed(false);
                 if (opa != null) {
                     opa.startCancelAction();
                 }
-                if (mSpring != null) {
-                    mSpring.setEndValue(0f);
+                if (mSpring != NavbarSpringSolver.NO_SPRING) {
+                    mHost.getSpringSolver().setEndValue(mSpring, 0f);
                 }
                 break;
             case MotionEvent.ACTION_UP:
@@ -358,22 +392,37 @@ public class SmartButtonView extends ImageView {
                 if (opa != null) {
                     opa.startCancelAction();
                 }
-                if (mSpring != null) {
-                    mSpring.setEndValue(0f);
+                if (mSpring != NavbarSpringSolver.NO_SPRING) {
+                    mHost.getSpringSolver().setEndValue(mSpring, 0f);
                 }
                 if (hasLongAction() || mScreenPinningEnabled) {
                     removeCallbacks(mCheckLongPress);
                 }
+                removeCallbacks(mPreloadForLongPress);
+                if (mLongPressFired) {
+                    mLongPressFired = false;
+                    mHost.getTapTimingModel().onLongPressUp(ev.getEventTime() - ev.getDownTime(),
+                            sLongPressTimeout);
+                } else if (!wasConsumed) {
+                    mHost.getTapTimingModel().onTapPress(ev.getEventTime() - ev.getDownTime());
+                    mLastTapUpTime = ev.getEventTime();
+                    mHasLastTap = true;
+                }
                 if (hasDoubleAction()) {
                     if (wasConsumed) {
                         wasConsumed = false;
                         return true;
                     }
                     isDoubleTapPending = true;
-                    postDelayed(mDoubleTapTimeout, sDoubleTapTimeout);
+                    mPendingTapTime = ev.getEventTime();
+                    if (mPreloadPredictor.isLikelyAfterTap()) {
+                        preloadRecents();
+                    }
+                    postDelayed(mDoubleTapTimeout,
+                            mHost.getTapTimingModel().getDoubleTapTimeout(sDoubleTapTimeout));
                 } else {
                     if (!wasConsumed && hasSingleAction()) {
-                        doSinglePress();
+                        doSinglePress(ev.getEventTime());
                     }
                 }
                 break;
@@ -381,16 +430,17 @@ public class SmartButtonView extends ImageView {
         return true;
     }
 
-    private void doSinglePress() {
+    private void doSinglePress(long touchTime) {
         isDoubleTapPending = false;
         if (mConfig != null) {
             String action = mConfig.getActionConfig(ActionConfig.PRIMARY).getAction();
-            fireActionIfSecure(action);
+            fireActionIfSecure(action, LatencyTracker.GESTURE_SINGLE_TAP, touchTime);
+            mPreloadPredictor.onOutcome(RecentsPreloadPredictor.OUTCOME_SINGLE);
             sendAccessibilityEvent(AccessibilityEvent.TYPE_VIEW_CLICKED);
         }
     }
 
-    private void doLongPress() {
+    private void doLongPress(long touchTime) {
         isDoubleTapPending = false;
         wasConsumed = true;
         if (mScreenPinningEnabled && mLongPressBackListener != null) {
@@ -400,19 +450,21 @@ public class SmartButtonView extends ImageView {
         } else {
             if (mConfig != null) {
                 String action = mConfig.getActionConfig(ActionConfig.SECOND).getAction();
-                fireActionIfSecure(action);
+                fireActionIfSecure(action, LatencyTracker.GESTURE_LONG_PRESS, touchTime);
+                mPreloadPredictor.onOutcome(RecentsPreloadPredictor.OUTCOME_LONG);
                 performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
                 sendAccessibilityEvent(AccessibilityEvent.TYPE_VIEW_LONG_CLICKED);
             }
         }
     }
 
-    private void doDoubleTap() {
+    private void doDoubleTap(long touchTime) {
         isDoubleTapPending = false;
         wasConsumed = true;
         if (mConfig != null) {
             String action = mConfig.getActionConfig(ActionConfig.THIRD).getAction();
-            fireActionIfSecure(action);
+            fireActionIfSecure(action, LatencyTracker.GESTURE_DOUBLE_TAP, touchTime);
+            mPreloadPredictor.onOutcome(RecentsPreloadPredictor.OUTCOME_DOUBLE);
         }
     }
 
@@ -421,7 +473,16 @@ public class SmartButtonView extends ImageView {
         public void run() {
             wasConsumed = false;
             isDoubleTapPending = false;
-            doSinglePress();
+            doSinglePress(mPendingTapTime);
+        }
+    };
+
+    private Runnable mPreloadForLongPress = new Runnable() {
+        @Override
+        public void run() {
+            if (isPressed()) {
+                preloadRecents();
+            }
         }
     };
 
@@ -429,9 +490,10 @@ public class SmartButtonView extends ImageView {
         public void run() {
             if (isPressed()) {
                 wasConsumed = true;
+                mLongPressFired = true;
                 isDoubleTapPending = false;
                 removeCallbacks(mDoubleTapTimeout);
-                doLongPress();
+                doLongPress(mPressDownTime);
             }
         }
     };
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Runs navbar actions on a dedicated worker so binder heavy tasks (screen
+ * off, recents, assistant, app launches) don't stall touch feedback,
+ * ripples and springs. Callers keep haptics and sound on the UI thread.
+ * Actions run in the order they were queued, a duplicate of an action
+ * still waiting is dropped, and every action is validated again right
+ * before it runs. Stepped controls like scrubbing queue signed deltas
+ * instead: deltas for a target add up while a delivery is waiting, and a
+ * target is handed its sum at most once per interval. A target is let go
+ * after an interval with nothing to deliver
+ *
+ */
+
+package com.android.systemui.navigation.utils;
+
+import java.util.ArrayList;
+
+import com.android.internal.utils.du.ActionHandler;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+public class ActionExecutor {
+    public interface ActionValidator {
+        /**
+         * Called on the worker right before the action runs. Anything read
+         * here must be safe to read off the UI thread
+         *
+         * @return false to drop the action
+         */
+        public boolean isActionAllowed(String action);
+    }
+
+    public interface StepTarget {
+        /**
+         * Called on the worker when a new run of steps starts, before any of them
+         */
+        public void onStepsStart();
+
+        /**
+         * Called on the worker with every step queued since the last call
+         *
+         * @param delta signed step count, never zero
+         */
+        public void onSteps(int delta);
+    }
+
+    private static final String TAG = ActionExecutor.class.getSimpleName();
+    private static final int MSG_PERFORM = 1;
+    private static final int MSG_STEPS = 2;
+    private static final int MSG_STEPS_START = 3;
+
+    private static ActionExecutor sInstance;
+
+    private final Handler mHandler;
+    // queued but not yet started, guarded by itself
+    private final ArrayList<String> mPending = new ArrayList<String>();
+    // one entry per step target with steps due or delivered within its interval,
+    // guarded by mPending
+    private final ArrayList<PendingSteps> mSteps = new ArrayList<PendingSteps>();
+
+    private static final class PendingAction {
+        Context context;
+        String action;
+        ActionValidator validator;
+        LatencyTracker tracker;
+        int gesture;
+        long touchTime;
+    }
+
+    private static final class PendingSteps {
+        StepTarget target;
+        int delta;
+        long minInterval;
+    }
+
+    private class WorkerHandler extends Handler {
+        WorkerHandler(HandlerThread thread) {
+            super(thread.getLooper());
+        }
+
+        @Override
+        public void handleMessage(Message m) {
+            switch (m.what) {
+                case MSG_PERFORM:
+                    final PendingAction pending = (PendingAction) m.obj;
+                    synchronized (mPending) {
+                        mPending.remove(pending.action);
+                    }
+                    if (pending.validator == null
+                            || pending.validator.isActionAllowed(pending.action)) {
+                        ActionHandler.performTask(pending.context, pending.action);
+                        if (pending.tracker != null) {
+                            pending.tracker.record(pending.gesture,
+                                    LatencyTracker.STAGE_COMPLETE, pending.touchTime,
+                                    SystemClock.uptimeMillis());
+                        }
+                    }
+                    break;
+                case MSG_STEPS:
+                    final PendingSteps steps = (PendingSteps) m.obj;
+                    final int delta;
+                    synchronized (mPending) {
+                        delta = steps.delta;
+                        steps.delta = 0;
+                        if (delta == 0) {
+                            // a quiet interval, or steps that cancelled out, drop the target
+                            mSteps.remove(steps);
+                        } else {
+                            // hold the slot an interval, steps meanwhile wait for it
+                            sendMessageDelayed(obtainMessage(MSG_STEPS, steps),
+                                    steps.minInterval);
+                        }
+                    }
+                    if (delta != 0) {
+                        steps.target.onSteps(delta);
+                    }
+                    break;
+                case MSG_STEPS_START:
+                    ((StepTarget) m.obj).onStepsStart();
+                    break;
+            }
+        }
+    }
+
+    private ActionExecutor() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        mHandler = new WorkerHandler(thread);
+    }
+
+    public static synchronized ActionExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ActionExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue an action. Returns false if the same action is already waiting
+     * to run and this one was coalesced into it
+     */
+    public boolean execute(Context context, String action, ActionValidator validator) {
+        return execute(context, action, validator, null, 0, 0);
+    }
+
+    /**
+     * Queue an action and record its latency once dispatched and once done
+     *
+     * @param gesture one of the LatencyTracker gesture types
+     * @param touchTime touch stamp the latency is measured from
+     */
+    public boolean execute(Context context, String action, ActionValidator validator,
+            LatencyTracker tracker, int gesture, long touchTime) {
+        synchronized (mPending) {
+            if (mPending.contains(action)) {
+                return false;
+            }
+            mPending.add(action);
+        }
+        final PendingAction pending = new PendingAction();
+        pending.context = context;
+        pending.action = action;
+        pending.validator = validator;
+        pending.tracker = tracker;
+        pending.gesture = gesture;
+        pending.touchTime = touchTime;
+        if (tracker != null) {
+            tracker.record(gesture, LatencyTracker.STAGE_DISPATCH, touchTime,
+                    SystemClock.uptimeMillis());
+        }
+        mHandler.sendMessage(mHandler.obtainMessage(MSG_PERFORM, pending));
+        return true;
+    }
+
+    /**
+     * Start a new run of steps for a target. Steps still waiting from the
+     * last run are dropped, and the target is told on the worker before
+     * any step queued after this reaches it
+     */
+    public void startSteps(StepTarget target) {
+        synchronized (mPending) {
+            final PendingSteps steps = findSteps(target);
+            if (steps != null) {
+                steps.delta = 0;
+                mHandler.removeMessages(MSG_STEPS, steps);
+                mSteps.remove(steps);
+            }
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_STEPS_START, target));
+        }
+    }
+
+    /**
+     * Queue a signed step delta for a target. Deltas coalesce into one
+     * delivery, and deliveries to a target are at least minInterval apart
+     */
+    public void step(StepTarget target, int delta, long minInterval) {
+        if (delta == 0) {
+            return;
+        }
+        synchronized (mPending) {
+            PendingSteps steps = findSteps(target);
+            if (steps != null) {
+                // a delivery is already due, it picks these up
+                steps.delta += delta;
+                return;
+            }
+            steps = new PendingSteps();
+            steps.target = target;
+            steps.delta = delta;
+            steps.minInterval = minInterval;
+            mSteps.add(steps);
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_STEPS, steps));
+        }
+    }
+
+    // caller holds mPending
+    private PendingSteps findSteps(StepTarget target) {
+        for (int i = 0; i < mSteps.size(); i++) {
+            if (mSteps.get(i).target == target) {
+                return mSteps.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -114,6 +114,18 @@ public class ColorAnimator implements ValueAnimator.AnimatorUpdateListener {
         }
     }
     
+    /**
+     * Jump ahead along the color path, e.g. on a music beat
+     *
+     * @param amount fraction of one full sweep to skip
+     */
+    public void step(float amount) {
+        if (mColorAnim.isRunning()) {
+            mColorAnim.setCurrentPlayTime(mColorAnim.getCurrentPlayTime()
+                    + (long) (amount * mAnimTime));
+        }
+    }
+
     public void setColorAnimatorListener(ColorAnimationListener listener) {
         mListener = listener;
     }
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Touch to action latency histograms for a navigation bar. Each action
+ * carries the event time of the touch that completed its own gesture; we
+ * record how long after that touch it was dispatched, and how long after
+ * that touch ActionHandler.performTask returned. Buckets are fixed and power of two,
+ * recording never allocates. Shows up in the bar's dump, pass "reset-latency"
+ * to clear it
+ *
+ */
+
+package com.android.systemui.navigation.utils;
+
+import java.io.PrintWriter;
+
+public class LatencyTracker {
+    public static final int GESTURE_SINGLE_TAP = 0;
+    public static final int GESTURE_DOUBLE_TAP = 1;
+    public static final int GESTURE_LONG_PRESS = 2;
+    public static final int GESTURE_SHORT_SWIPE = 3;
+    public static final int GESTURE_LONG_SWIPE = 4;
+    public static final int GESTURE_UP_SWIPE = 5;
+    private static final int GESTURE_COUNT = 6;
+    private static final String[] GESTURE_NAMES = {
+            "single tap", "double tap", "long press", "short swipe", "long swipe", "up swipe"
+    };
+
+    // touch until the action is handed to the worker
+    public static final int STAGE_DISPATCH = 0;
+    // touch until performTask returns
+    public static final int STAGE_COMPLETE = 1;
+    private static final int STAGE_COUNT = 2;
+    private static final String[] STAGE_NAMES = {
+            "dispatch", "complete"
+    };
+
+    public static final String DUMP_ARG_RESET = "reset-latency";
+
+    // bucket upper bounds in millis, one extra bucket past the last
+    private static final int[] BUCKET_LIMITS = {
+            4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048
+    };
+    private static final int BUCKET_COUNT = BUCKET_LIMITS.length + 1;
+
+    private final String mName;
+    private final int[][][] mBuckets = new int[GESTURE_COUNT][STAGE_COUNT][BUCKET_COUNT];
+    private final int[][] mCounts = new int[GESTURE_COUNT][STAGE_COUNT];
+    private final long[][] mTotals = new long[GESTURE_COUNT][STAGE_COUNT];
+    private final long[][] mMax = new long[GESTURE_COUNT][STAGE_COUNT];
+
+    public LatencyTracker(String name) {
+        mName = name;
+    }
+
+    /**
+     * @param touchTime event time of the touch that completed the gesture
+     * @param now current uptime in millis
+     */
+    public synchronized void record(int gesture, int stage, long touchTime, long now) {
+        if (touchTime <= 0 || gesture < 0 || gesture >= GESTURE_COUNT) {
+            return;
+        }
+        final long latency = Math.max(0, now - touchTime);
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS.length && latency >= BUCKET_LIMITS[bucket]) {
+            bucket++;
+        }
+        mBuckets[gesture][stage][bucket]++;
+        mCounts[gesture][stage]++;
+        mTotals[gesture][stage] += latency;
+        if (latency > mMax[gesture][stage]) {
+            mMax[gesture][stage] = latency;
+        }
+    }
+
+    public synchronized void reset() {
+        for (int g = 0; g < GESTURE_COUNT; g++) {
+            for (int s = 0; s < STAGE_COUNT; s++) {
+                for (int b = 0; b < BUCKET_COUNT; b++) {
+                    mBuckets[g][s][b] = 0;
+                }
+                mCounts[g][s] = 0;
+                mTotals[g][s] = 0;
+                mMax[g][s] = 0;
+            }
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + mName + " latency (ms) {");
+        final StringBuilder sb = new StringBuilder();
+        for (int g = 0; g < GESTURE_COUNT; g++) {
+            for (int s = 0; s < STAGE_COUNT; s++) {
+                final int count = mCounts[g][s];
+                if (count == 0) {
+                    continue;
+                }
+                sb.setLength(0);
+                sb.append(prefix).append("  ").append(GESTURE_NAMES[g]).append(' ')
+                        .append(STAGE_NAMES[s]).append(": n=").append(count)
+                        .append(" mean=").append(mTotals[g][s] / count)
+                        .append(" p50<").append(getPercentileLimit(g, s, 0.5f))
+                        .append(" p90<").append(getPercentileLimit(g, s, 0.9f))
+                        .append(" max=").append(mMax[g][s])
+                        .append(" [");
+                for (int b = 0; b < BUCKET_COUNT; b++) {
+                    if (b > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(mBuckets[g][s][b]);
+                }
+                sb.append(']');
+                pw.println(sb.toString());
+            }
+        }
+        pw.println(prefix + "  buckets <4 <8 <16 <32 <64 <128 <256 <512 <1024 <2048 more");
+        pw.println(prefix + "}");
+    }
+
+    // upper bound of the bucket holding the given percentile, or "inf" past the last
+    private String getPercentileLimit(int gesture, int stage, float percentile) {
+        final int target = (int) Math.ceil(mCounts[gesture][stage] * percentile);
+        int seen = 0;
+        for (int b = 0; b < BUCKET_LIMITS.length; b++) {
+            seen += mBuckets[gesture][stage][b];
+            if (seen >= target) {
+                return String.valueOf(BUCKET_LIMITS[b]);
+            }
+        }
+        return "inf";
+    }
+}
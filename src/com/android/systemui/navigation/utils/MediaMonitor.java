@@ -58,6 +58,18 @@ public abstract class MediaMonitor implements MediaSessionManager.OnActiveSessio
         return mIsAnythingPlaying;
     }
 
+    /**
+     * @return token of a session that is currently playing, or null if none is known
+     */
+    public MediaSession.Token getPlayingSessionToken() {
+        for (Map.Entry<MediaSession.Token, CallbackInfo> entry : mCallbacks.entrySet()) {
+            if (entry.getValue().isPlaying()) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
     public void setListening(boolean listening) {
         if (mListening == listening) return;
         mListening = listening;
@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * One spring solver for every button on a navbar. Spring state lives in
+ * parallel primitive arrays indexed by slot, and a single Choreographer
+ * callback steps all moving springs in one loop and then writes each
+ * view's scale in one pass. The callback is only posted while a spring
+ * is off rest. Springs use the same fixed 1ms substep and rest thresholds
+ * as the Rebound springs they replace, so the press feel is unchanged
+ *
+ */
+
+package com.android.systemui.navigation.utils;
+
+import android.view.Choreographer;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+
+public class NavbarSpringSolver {
+    public static final int NO_SPRING = -1;
+
+    // integration substep and the longest frame gap stepped, in seconds
+    private static final float SOLVER_TIMESTEP = 0.001f;
+    private static final float MAX_DELTA = 0.064f;
+    private static final float REST_DISPLACEMENT = 0.005f;
+    private static final float REST_SPEED = 0.005f;
+    private static final int INITIAL_CAPACITY = 8;
+
+    // per slot, a null view marks a free slot
+    private View[] mViews = new View[INITIAL_CAPACITY];
+    private float[] mValue = new float[INITIAL_CAPACITY];
+    private float[] mVelocity = new float[INITIAL_CAPACITY];
+    private float[] mEnd = new float[INITIAL_CAPACITY];
+    private float[] mTension = new float[INITIAL_CAPACITY];
+    private float[] mFriction = new float[INITIAL_CAPACITY];
+    // scale lost at a value of 1
+    private float[] mScaleAmount = new float[INITIAL_CAPACITY];
+    private boolean[] mMoving = new boolean[INITIAL_CAPACITY];
+    private int mMovingCount;
+
+    private boolean mFrameScheduled;
+    // frames are being stepped, false while everything is at rest
+    private boolean mRunning;
+    private long mLastFrameTime;
+    // time not yet stepped, carried to the next frame
+    private float mTimeAccumulator;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            final long now = AnimationUtils.currentAnimationTimeMillis();
+            final float delta = Math.min(MAX_DELTA, (now - mLastFrameTime) / 1000f);
+            mLastFrameTime = now;
+            step(delta);
+            if (mMovingCount > 0) {
+                scheduleFrame();
+            } else {
+                mRunning = false;
+            }
+        }
+    };
+
+    /**
+     * Add a spring that scales the view down as its value goes from 0 to 1
+     *
+     * @return the spring's slot, for the other calls
+     */
+    public int add(View view, float tension, float friction, float scaleAmount) {
+        int slot = NO_SPRING;
+        for (int i = 0; i < mViews.length; i++) {
+            if (mViews[i] == null) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot == NO_SPRING) {
+            slot = mViews.length;
+            grow(mViews.length * 2);
+        }
+        mViews[slot] = view;
+        mValue[slot] = 0f;
+        mVelocity[slot] = 0f;
+        mEnd[slot] = 0f;
+        mTension[slot] = tension;
+        mFriction[slot] = friction;
+        mScaleAmount[slot] = scaleAmount;
+        mMoving[slot] = false;
+        return slot;
+    }
+
+    public void remove(int slot) {
+        if (!isValid(slot)) {
+            return;
+        }
+        setMoving(slot, false);
+        mViews[slot] = null;
+    }
+
+    public void setEndValue(int slot, float end) {
+        if (!isValid(slot) || mEnd[slot] == end) {
+            return;
+        }
+        mEnd[slot] = end;
+        setMoving(slot, true);
+        scheduleFrame();
+    }
+
+    /**
+     * Snap a spring to a value and leave it at rest there
+     */
+    public void setCurrentValue(int slot, float value) {
+        if (!isValid(slot)) {
+            return;
+        }
+        mValue[slot] = value;
+        mEnd[slot] = value;
+        mVelocity[slot] = 0f;
+        setMoving(slot, false);
+        applyScale(slot);
+    }
+
+    /**
+     * Drop every spring, views are left as they are
+     */
+    public void clear() {
+        for (int i = 0; i < mViews.length; i++) {
+            mViews[i] = null;
+            mMoving[i] = false;
+        }
+        mMovingCount = 0;
+        mRunning = false;
+        if (mFrameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            mFrameScheduled = false;
+        }
+    }
+
+    private boolean isValid(int slot) {
+        return slot >= 0 && slot < mViews.length && mViews[slot] != null;
+    }
+
+    private void setMoving(int slot, boolean moving) {
+        if (mMoving[slot] != moving) {
+            mMoving[slot] = moving;
+            mMovingCount += moving ? 1 : -1;
+        }
+    }
+
+    private void scheduleFrame() {
+        if (!mFrameScheduled && mMovingCount > 0) {
+            mFrameScheduled = true;
+            if (!mRunning) {
+                // waking up, don't step over the time spent at rest
+                mRunning = true;
+                mLastFrameTime = AnimationUtils.currentAnimationTimeMillis();
+                mTimeAccumulator = 0f;
+            }
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private void step(float delta) {
+        mTimeAccumulator += delta;
+        final int count = mViews.length;
+        while (mTimeAccumulator >= SOLVER_TIMESTEP) {
+            mTimeAccumulator -= SOLVER_TIMESTEP;
+            for (int i = 0; i < count; i++) {
+                if (!mMoving[i]) {
+                    continue;
+                }
+                // semi-implicit euler, stable for navbar tensions at a 1ms step
+                final float force = mTension[i] * (mEnd[i] - mValue[i])
+                        - mFriction[i] * mVelocity[i];
+                mVelocity[i] += force * SOLVER_TIMESTEP;
+                mValue[i] += mVelocity[i] * SOLVER_TIMESTEP;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (!mMoving[i]) {
+                continue;
+            }
+            if (Math.abs(mVelocity[i]) <= REST_SPEED
+                    && Math.abs(mEnd[i] - mValue[i]) <= REST_DISPLACEMENT) {
+                mValue[i] = mEnd[i];
+                mVelocity[i] = 0f;
+                setMoving(i, false);
+            }
+            applyScale(i);
+        }
+    }
+
+    private void applyScale(int slot) {
+        final float scale = 1f - mValue[slot] * mScaleAmount[slot];
+        mViews[slot].setScaleX(scale);
+        mViews[slot].setScaleY(scale);
+    }
+
+    private void grow(int capacity) {
+        final View[] views = new View[capacity];
+        System.arraycopy(mViews, 0, views, 0, mViews.length);
+        mViews = views;
+        mValue = copyOf(mValue, capacity);
+        mVelocity = copyOf(mVelocity, capacity);
+        mEnd = copyOf(mEnd, capacity);
+        mTension = copyOf(mTension, capacity);
+        mFriction = copyOf(mFriction, capacity);
+        mScaleAmount = copyOf(mScaleAmount, capacity);
+        final boolean[] moving = new boolean[capacity];
+        System.arraycopy(mMoving, 0, moving, 0, mMoving.length);
+        mMoving = moving;
+    }
+
+    private static float[] copyOf(float[] array, int capacity) {
+        final float[] copy = new float[capacity];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Learns how fast this user taps. Keeps two small fixed histograms, the
+ * gap between a tap and the next touch on the same target and how long
+ * presses are held inside the default long press window, and when enabled shrinks the double tap and long
+ * press windows to a high percentile of each plus some margin. Windows
+ * never grow past the configured value or drop below a safe floor. Old
+ * samples are halved away over time so the model follows the user
+ *
+ */
+
+package com.android.systemui.navigation.utils;
+
+import java.io.PrintWriter;
+
+public class TapTimingModel {
+    public static final String NAVBAR_ADAPTIVE_TIMING_URI = "navbar_adaptive_timing";
+
+    private static final int BIN_MILLIS = 10;
+    // 0 - 1000ms, anything longer lands in the last bin
+    private static final int BIN_COUNT = 100;
+    // samples needed before a window moves off its default
+    private static final int MIN_SAMPLES = 20;
+    // halve a histogram once it holds this many samples
+    private static final int DECAY_AT = 400;
+
+    private static final float INTERVAL_PERCENTILE = 0.95f;
+    private static final float PRESS_PERCENTILE = 0.99f;
+    private static final float INTERVAL_MARGIN = 1.25f;
+    private static final float PRESS_MARGIN = 1.5f;
+    private static final int MIN_DOUBLE_TAP_TIMEOUT = 150;
+    private static final int MIN_LONG_PRESS_TIMEOUT = 300;
+
+    private final int[] mIntervals = new int[BIN_COUNT];
+    private int mIntervalCount;
+    private final int[] mPresses = new int[BIN_COUNT];
+    private int mPressCount;
+    private boolean mEnabled;
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Time from a tap's up to the next down on the same target. Feed it
+     * anything inside the default double tap window, including second taps
+     * that missed a shortened one, so the window can grow back
+     */
+    public void onTapInterval(long millis) {
+        mIntervalCount = add(mIntervals, mIntervalCount, millis);
+    }
+
+    /**
+     * Down to up of a tap that didn't become a long press
+     */
+    public void onTapPress(long millis) {
+        mPressCount = add(mPresses, mPressCount, millis);
+    }
+
+    /**
+     * Down to up of a press that did become a long press. Holds the default
+     * window would still have called taps fired only because the window was
+     * shortened, they count as presses so the window can grow back
+     */
+    public void onLongPressUp(long millis, int defaultTimeout) {
+        if (millis < defaultTimeout) {
+            mPressCount = add(mPresses, mPressCount, millis);
+        }
+    }
+
+    public int getDoubleTapTimeout(int defaultTimeout) {
+        return getWindow(mIntervals, mIntervalCount, INTERVAL_PERCENTILE, INTERVAL_MARGIN,
+                MIN_DOUBLE_TAP_TIMEOUT, defaultTimeout);
+    }
+
+    public int getLongPressTimeout(int defaultTimeout) {
+        return getWindow(mPresses, mPressCount, PRESS_PERCENTILE, PRESS_MARGIN,
+                MIN_LONG_PRESS_TIMEOUT, defaultTimeout);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BIN_COUNT; i++) {
+            mIntervals[i] = 0;
+            mPresses[i] = 0;
+        }
+        mIntervalCount = 0;
+        mPressCount = 0;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "tap timing: enabled=" + mEnabled
+                + " intervals=" + mIntervalCount
+                + " p95<" + getPercentile(mIntervals, mIntervalCount, INTERVAL_PERCENTILE)
+                + " presses=" + mPressCount
+                + " p99<" + getPercentile(mPresses, mPressCount, PRESS_PERCENTILE));
+    }
+
+    private static int add(int[] bins, int count, long millis) {
+        if (millis < 0) {
+            return count;
+        }
+        bins[(int) Math.min(BIN_COUNT - 1, millis / BIN_MILLIS)]++;
+        count++;
+        if (count >= DECAY_AT) {
+            count = 0;
+            for (int i = 0; i < BIN_COUNT; i++) {
+                bins[i] >>= 1;
+                count += bins[i];
+            }
+        }
+        return count;
+    }
+
+    private int getWindow(int[] bins, int count, float percentile, float margin,
+            int floor, int defaultTimeout) {
+        if (!mEnabled || count < MIN_SAMPLES) {
+            return defaultTimeout;
+        }
+        final int window = (int) (getPercentile(bins, count, percentile) * margin);
+        return Math.max(Math.min(floor, defaultTimeout), Math.min(window, defaultTimeout));
+    }
+
+    // upper edge of the bin holding the percentile, in millis
+    private static int getPercentile(int[] bins, int count, float percentile) {
+        final int target = (int) Math.ceil(count * percentile);
+        int seen = 0;
+        for (int i = 0; i < BIN_COUNT; i++) {
+            seen += bins[i];
+            if (seen >= target) {
+                return (i + 1) * BIN_MILLIS;
+            }
+        }
+        return BIN_COUNT * BIN_MILLIS;
+    }
+}
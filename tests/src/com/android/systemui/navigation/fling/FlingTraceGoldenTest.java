@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Replays touch traces through the Fling recognizer and checks each one
+ * still produces its golden gestures. Scripted traces cover every gesture
+ * type, traces recorded on a device with the bar's "record-fling-trace"
+ * and "save-fling-trace" dump args go in assets/traces
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.res.AssetManager;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+
+public class FlingTraceGoldenTest extends InstrumentationTestCase {
+    private static final String TRACE_ASSETS = "traces";
+
+    private TraceReplayer mReplayer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mReplayer = new TraceReplayer(getInstrumentation().getTargetContext());
+    }
+
+    @UiThreadTest
+    public void testSingleTaps() {
+        assertGolden(new TraceBuilder()
+                .down(100, 48).hold(60).up().expect(FlingGesture.SINGLE_LEFT_TAP)
+                .down(600, 48).hold(60).up().expect(FlingGesture.SINGLE_RIGHT_TAP)
+                .build());
+    }
+
+    @UiThreadTest
+    public void testDoubleTaps() {
+        assertGolden(new TraceBuilder()
+                .doubleTap(true, false)
+                .down(100, 48).hold(60).up()
+                .downAfter(100, 100, 48).hold(60).up().expect(FlingGesture.DOUBLE_LEFT_TAP)
+                // no second tap, the first goes out once the window closes
+                .down(100, 48).hold(60).up().expect(FlingGesture.SINGLE_LEFT_TAP)
+                // right side doesn't wait
+                .down(600, 48).hold(60).up().expect(FlingGesture.SINGLE_RIGHT_TAP)
+                .build());
+    }
+
+    @UiThreadTest
+    public void testLongPresses() {
+        assertGolden(new TraceBuilder()
+                .down(100, 48).hold(1000).up().expect(FlingGesture.LONG_LEFT_PRESS)
+                .down(600, 48).hold(1000).up().expect(FlingGesture.LONG_RIGHT_PRESS)
+                .build());
+    }
+
+    @UiThreadTest
+    public void testSwipes() {
+        assertGolden(new TraceBuilder()
+                .down(100, 48).moveTo(600, 48, 10).up().expect(FlingGesture.LONG_RIGHT_SWIPE)
+                .down(600, 48).moveTo(450, 48, 4).up().expect(FlingGesture.SHORT_LEFT_SWIPE)
+                .down(600, 90).moveTo(605, 5, 6).up().expect(FlingGesture.UP_RIGHT_SWIPE)
+                .down(100, 90).moveTo(95, 5, 6).up().expect(FlingGesture.UP_LEFT_SWIPE)
+                .build());
+    }
+
+    @UiThreadTest
+    public void testEarlySwipeFiresOnce() {
+        assertGolden(new TraceBuilder()
+                .earlySwipe(true)
+                .down(100, 48).moveTo(600, 48, 10).up().expect(FlingGesture.LONG_RIGHT_SWIPE)
+                .build());
+    }
+
+    @UiThreadTest
+    public void testEarlyShortSwipe() {
+        assertGolden(new TraceBuilder()
+                .earlySwipe(true)
+                .sameSwipeAction(true, false)
+                // short and long do the same, so it goes out short long before the threshold
+                .down(600, 48).moveTo(100, 48, 10).up().expect(FlingGesture.SHORT_LEFT_SWIPE)
+                // different actions, wait to see how far it goes
+                .down(100, 48).moveTo(600, 48, 10).up().expect(FlingGesture.LONG_RIGHT_SWIPE)
+                .down(100, 48).moveTo(250, 48, 4).up().expect(FlingGesture.SHORT_RIGHT_SWIPE)
+                .build());
+    }
+
+    @UiThreadTest
+    public void testRecordedThresholdsDecide() {
+        // the same 200px swipe either side of the threshold, whatever the device has set
+        assertGolden(new TraceBuilder(0.40f)
+                .down(100, 48).moveTo(300, 48, 5).up().expect(FlingGesture.SHORT_RIGHT_SWIPE)
+                .build());
+        assertGolden(new TraceBuilder(0.25f)
+                .down(100, 48).moveTo(300, 48, 5).up().expect(FlingGesture.LONG_RIGHT_SWIPE)
+                .build());
+    }
+
+    @UiThreadTest
+    public void testFormatRoundTrip() throws IOException {
+        final TouchTrace trace = new TraceBuilder(0.25f)
+                .doubleTap(true, true)
+                .earlySwipe(true)
+                .sameSwipeAction(false, true)
+                .down(100, 48).hold(60).up()
+                .downAfter(100, 100, 48).hold(60).up().expect(FlingGesture.DOUBLE_LEFT_TAP)
+                .down(600, 48).moveTo(350, 48, 6).up().expect(FlingGesture.LONG_LEFT_SWIPE)
+                .build();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trace.write(new DataOutputStream(bytes));
+        final TouchTrace read = TouchTrace.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(trace.getDensityDpi(), read.getDensityDpi());
+        assertEquals(trace.getLeftPortThreshold(), read.getLeftPortThreshold());
+        assertEquals(trace.getDownVertThreshold(), read.getDownVertThreshold());
+        assertEquals(trace.isEarlySwipeEnabled(), read.isEarlySwipeEnabled());
+        assertEquals(trace.isScrubEnabled(), read.isScrubEnabled());
+        assertEquals(trace.isDoubleTapEnabled(false), read.isDoubleTapEnabled(false));
+        assertEquals(trace.isDoubleTapEnabled(true), read.isDoubleTapEnabled(true));
+        assertEquals(trace.isSameSwipeAction(false), read.isSameSwipeAction(false));
+        assertEquals(trace.isSameSwipeAction(true), read.isSameSwipeAction(true));
+        assertEquals(trace.getEventCount(), read.getEventCount());
+        for (int i = 0; i < trace.getEventCount(); i++) {
+            assertEquals(trace.getAction(i), read.getAction(i));
+            assertEquals(trace.getSampleCount(i), read.getSampleCount(i));
+        }
+        assertGolden(read);
+    }
+
+    @UiThreadTest
+    public void testRecordedTraces() throws IOException {
+        final AssetManager assets = getInstrumentation().getContext().getAssets();
+        final String[] names = assets.list(TRACE_ASSETS);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            final TouchTrace trace;
+            final InputStream in = assets.open(TRACE_ASSETS + "/" + name);
+            try {
+                trace = TouchTrace.read(new DataInputStream(in));
+            } finally {
+                in.close();
+            }
+            assertGolden(name, trace);
+        }
+    }
+
+    private void assertGolden(TouchTrace trace) {
+        assertGolden(getName(), trace);
+    }
+
+    private void assertGolden(String name, TouchTrace trace) {
+        final TraceReplayer.Result result = mReplayer.replay(trace);
+        // twice, a replay must not depend on anything left from the last one
+        final TraceReplayer.Result again = mReplayer.replay(trace);
+        assertTrue(name + " replayed to " + result, result.matches(trace));
+        assertTrue(name + " replayed again to " + again, again.matches(trace));
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Times the Fling recognizer over a trace holding one of every gesture.
+ * The recognizer is built once and only the event feed is timed. The mean
+ * per replay and per touch event and the allocations per replay are
+ * reported as instrumentation status and logged, compare them across
+ * recognizer changes on one device
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.util.Log;
+
+public class FlingTraceReplayBenchmark extends InstrumentationTestCase {
+    private static final String TAG = FlingTraceReplayBenchmark.class.getSimpleName();
+    private static final int ITERATIONS = 500;
+
+    @UiThreadTest
+    public void testReplayTime() {
+        final TouchTrace trace = new TraceBuilder()
+                .doubleTap(true, false)
+                .down(100, 48).hold(60).up()
+                .downAfter(100, 100, 48).hold(60).up().expect(FlingGesture.DOUBLE_LEFT_TAP)
+                .down(600, 48).hold(60).up().expect(FlingGesture.SINGLE_RIGHT_TAP)
+                .down(100, 48).hold(1000).up().expect(FlingGesture.LONG_LEFT_PRESS)
+                .down(100, 48).moveTo(600, 48, 10).up().expect(FlingGesture.LONG_RIGHT_SWIPE)
+                .down(600, 48).moveTo(450, 48, 4).up().expect(FlingGesture.SHORT_LEFT_SWIPE)
+                .down(600, 90).moveTo(605, 5, 6).up().expect(FlingGesture.UP_RIGHT_SWIPE)
+                .build();
+        final TraceReplayer replayer = new TraceReplayer(getInstrumentation().getTargetContext());
+        // timing a replay that went wrong means nothing
+        final TraceReplayer.Result result = replayer.replay(trace);
+        assertTrue("replayed to " + result, result.matches(trace));
+
+        final TraceReplayer.Timing timing = replayer.timeReplays(trace, ITERATIONS);
+        final long replayNanos = timing.getNanosPerReplay();
+        final long eventNanos = replayNanos / trace.getEventCount();
+        Log.i(TAG, timing + ", " + eventNanos + "ns per event");
+        final Bundle status = new Bundle();
+        status.putLong("replay_ns", replayNanos);
+        status.putLong("event_ns", eventNanos);
+        status.putLong("replay_allocs", timing.getAllocationsPerReplay());
+        getInstrumentation().sendStatus(0, status);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Checks the swipe table for each bar layout: a portrait bar, a tablet's
+ * landscape bar and a phone's vertical bar on either edge. Thresholds on
+ * each side differ so a swapped side shows up, and are picked to land on
+ * whole pixels so the boundaries can be hit exactly
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import junit.framework.TestCase;
+
+public class SwipeClassifierTest extends TestCase {
+    // 360dp by 48dp at xhdpi, and the same bar standing up
+    private static final int LONG_SIDE = 720;
+    private static final int SHORT_SIDE = 96;
+    private static final int TABLET_LONG_SIDE = 1280;
+
+    // 180px and 360px on the 720px bar, 320px and 640px on the tablet one
+    private static final float LEFT_PORT = 0.25f;
+    private static final float RIGHT_PORT = 0.50f;
+    private static final float LEFT_LAND = 0.25f;
+    private static final float RIGHT_LAND = 0.50f;
+    private static final float UP_VERT = 0.25f;
+    private static final float DOWN_VERT = 0.50f;
+
+    // well over any sane fling minimum
+    private static final float FAST = 5000f;
+    private static final float MIN_VELOCITY = 100f;
+
+    private SwipeClassifier mClassifier;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClassifier = new SwipeClassifier();
+        mClassifier.setThresholds(LEFT_LAND, RIGHT_LAND, LEFT_PORT, RIGHT_PORT,
+                UP_VERT, DOWN_VERT);
+    }
+
+    public void testNoGeometry() {
+        assertNull(mClassifier.classify(0, 0, 500, 0));
+        assertNull(mClassifier.classifyInProgress(0, 0, 500, 0, FAST, 0, MIN_VELOCITY));
+    }
+
+    public void testPortraitSides() {
+        mClassifier.setGeometry(LONG_SIDE, SHORT_SIDE, false, false);
+        assertTrue(mClassifier.isRightSide(LONG_SIDE / 2 + 1, 48));
+        assertFalse(mClassifier.isRightSide(LONG_SIDE / 2, 48));
+        assertEquals(50f, mClassifier.getLongAxisTravel(100, 48, 150, 10));
+    }
+
+    public void testPortraitThresholds() {
+        mClassifier.setGeometry(LONG_SIDE, SHORT_SIDE, false, false);
+        // long only once strictly past the threshold
+        assertEquals(FlingGesture.SHORT_RIGHT_SWIPE, mClassifier.classify(100, 48, 460, 48));
+        assertEquals(FlingGesture.LONG_RIGHT_SWIPE, mClassifier.classify(100, 48, 461, 48));
+        assertEquals(FlingGesture.SHORT_LEFT_SWIPE, mClassifier.classify(600, 48, 420, 48));
+        assertEquals(FlingGesture.LONG_LEFT_SWIPE, mClassifier.classify(600, 48, 419, 48));
+    }
+
+    public void testLandscapeTabletUsesLandThresholds() {
+        mClassifier.setGeometry(TABLET_LONG_SIDE, SHORT_SIDE, true, false);
+        assertEquals(FlingGesture.SHORT_RIGHT_SWIPE, mClassifier.classify(100, 48, 740, 48));
+        assertEquals(FlingGesture.LONG_RIGHT_SWIPE, mClassifier.classify(100, 48, 741, 48));
+        assertEquals(FlingGesture.SHORT_LEFT_SWIPE, mClassifier.classify(1200, 48, 880, 48));
+        assertEquals(FlingGesture.LONG_LEFT_SWIPE, mClassifier.classify(1200, 48, 879, 48));
+        // leftInLandscape only means something for a vertical bar
+        mClassifier.setGeometry(TABLET_LONG_SIDE, SHORT_SIDE, true, true);
+        assertEquals(FlingGesture.LONG_RIGHT_SWIPE, mClassifier.classify(100, 48, 741, 48));
+        assertEquals(FlingGesture.UP_LEFT_SWIPE, mClassifier.classify(100, 90, 100, 5));
+    }
+
+    public void testVerticalBarSides() {
+        for (boolean leftInLandscape : new boolean[] { false, true }) {
+            mClassifier.setGeometry(SHORT_SIDE, LONG_SIDE, true, leftInLandscape);
+            // the top half is "right"
+            assertTrue(mClassifier.isRightSide(48, LONG_SIDE / 2 - 1));
+            assertFalse(mClassifier.isRightSide(48, LONG_SIDE / 2));
+            assertEquals(50f, mClassifier.getLongAxisTravel(48, 150, 10, 100));
+        }
+    }
+
+    public void testVerticalBarThresholds() {
+        for (boolean leftInLandscape : new boolean[] { false, true }) {
+            mClassifier.setGeometry(SHORT_SIDE, LONG_SIDE, true, leftInLandscape);
+            // down the bar is left against the down threshold, 360px
+            assertEquals(FlingGesture.SHORT_LEFT_SWIPE, mClassifier.classify(48, 100, 48, 460));
+            assertEquals(FlingGesture.LONG_LEFT_SWIPE, mClassifier.classify(48, 100, 48, 461));
+            // up the bar is right against the up threshold, 180px
+            assertEquals(FlingGesture.SHORT_RIGHT_SWIPE, mClassifier.classify(48, 600, 48, 420));
+            assertEquals(FlingGesture.LONG_RIGHT_SWIPE, mClassifier.classify(48, 600, 48, 419));
+        }
+    }
+
+    public void testVerticalBarUpSwipeFollowsEdge() {
+        // bar on the right edge, content is toward smaller x
+        mClassifier.setGeometry(SHORT_SIDE, LONG_SIDE, true, false);
+        assertEquals(FlingGesture.UP_RIGHT_SWIPE, mClassifier.classify(90, 100, 5, 100));
+        assertEquals(FlingGesture.UP_LEFT_SWIPE, mClassifier.classify(90, 600, 5, 600));
+        assertNotUpSwipe(mClassifier.classify(5, 100, 90, 100));
+
+        // bar on the left edge, content is toward larger x
+        mClassifier.setGeometry(SHORT_SIDE, LONG_SIDE, true, true);
+        assertEquals(FlingGesture.UP_RIGHT_SWIPE, mClassifier.classify(5, 100, 90, 100));
+        assertEquals(FlingGesture.UP_LEFT_SWIPE, mClassifier.classify(5, 600, 90, 600));
+        assertNotUpSwipe(mClassifier.classify(90, 100, 5, 100));
+    }
+
+    public void testUpSwipeDistance() {
+        mClassifier.setGeometry(LONG_SIDE, SHORT_SIDE, false, false);
+        // 80% of 96px is 76.8px
+        assertEquals(FlingGesture.UP_RIGHT_SWIPE, mClassifier.classify(600, 90, 600, 13));
+        assertNotUpSwipe(mClassifier.classify(600, 90, 600, 14));
+        // down, away from the content, is never an up swipe
+        assertNotUpSwipe(mClassifier.classify(600, 5, 600, 95));
+    }
+
+    public void testUpSwipeAngle() {
+        mClassifier.setGeometry(LONG_SIDE, SHORT_SIDE, false, false);
+        // 90px up, 30 degrees off the short axis is 51.96px along the bar: tan^2 = 1/3
+        assertEquals(FlingGesture.UP_LEFT_SWIPE, mClassifier.classify(100, 95, 151, 5));
+        assertEquals(FlingGesture.UP_LEFT_SWIPE, mClassifier.classify(100, 95, 49, 5));
+        assertNotUpSwipe(mClassifier.classify(100, 95, 153, 5));
+        assertNotUpSwipe(mClassifier.classify(100, 95, 47, 5));
+
+        // same boundary on a vertical bar, the axes swap
+        mClassifier.setGeometry(SHORT_SIDE, LONG_SIDE, true, false);
+        assertEquals(FlingGesture.UP_LEFT_SWIPE, mClassifier.classify(95, 600, 5, 651));
+        assertNotUpSwipe(mClassifier.classify(95, 600, 5, 653));
+    }
+
+    public void testInProgressPortrait() {
+        mClassifier.setGeometry(LONG_SIDE, SHORT_SIDE, false, false);
+        // nothing before 10% of the bar, 72px
+        assertNull(mClassifier.classifyInProgress(100, 48, 171, 48, FAST, 0, MIN_VELOCITY));
+        assertEquals(FlingGesture.SHORT_RIGHT_SWIPE,
+                mClassifier.classifyInProgress(100, 48, 172, 48, FAST, 0, MIN_VELOCITY));
+        assertEquals(FlingGesture.LONG_RIGHT_SWIPE,
+                mClassifier.classifyInProgress(100, 48, 461, 48, FAST, 0, MIN_VELOCITY));
+        assertEquals(FlingGesture.LONG_LEFT_SWIPE,
+                mClassifier.classifyInProgress(600, 48, 419, 48, -FAST, 0, MIN_VELOCITY));
+    }
+
+    public void testInProgressWaits() {
+        mClassifier.setGeometry(LONG_SIDE, SHORT_SIDE, false, false);
+        // slowing down or turning back could still end anywhere
+        assertNull(mClassifier.classifyInProgress(100, 48, 300, 48, MIN_VELOCITY - 1, 0,
+                MIN_VELOCITY));
+        assertNull(mClassifier.classifyInProgress(100, 48, 300, 48, -FAST, 0, MIN_VELOCITY));
+        // leaning toward an up swipe
+        assertNull(mClassifier.classifyInProgress(100, 90, 200, 30, FAST, 0, MIN_VELOCITY));
+        // already far enough across for one
+        assertNull(mClassifier.classifyInProgress(100, 95, 400, 15, FAST, 0, MIN_VELOCITY));
+    }
+
+    public void testInProgressVerticalBar() {
+        for (boolean leftInLandscape : new boolean[] { false, true }) {
+            mClassifier.setGeometry(SHORT_SIDE, LONG_SIDE, true, leftInLandscape);
+            assertEquals(FlingGesture.SHORT_LEFT_SWIPE,
+                    mClassifier.classifyInProgress(48, 100, 48, 200, 0, FAST, MIN_VELOCITY));
+            assertEquals(FlingGesture.LONG_LEFT_SWIPE,
+                    mClassifier.classifyInProgress(48, 100, 48, 461, 0, FAST, MIN_VELOCITY));
+            assertEquals(FlingGesture.LONG_RIGHT_SWIPE,
+                    mClassifier.classifyInProgress(48, 600, 48, 419, 0, -FAST, MIN_VELOCITY));
+            // x speed means nothing along a vertical bar
+            assertNull(mClassifier.classifyInProgress(48, 100, 48, 200, FAST, 0,
+                    MIN_VELOCITY));
+        }
+    }
+
+    private static void assertNotUpSwipe(FlingGesture gesture) {
+        assertNotNull(gesture);
+        assertTrue(gesture + " is an up swipe", gesture != FlingGesture.UP_LEFT_SWIPE
+                && gesture != FlingGesture.UP_RIGHT_SWIPE);
+    }
+}
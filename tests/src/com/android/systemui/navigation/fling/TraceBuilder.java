@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016 The DirtyUnicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Scripts synthetic touch traces on a fixed portrait bar, 360dp by 48dp at
+ * xhdpi, with the gestures each one should produce. Gestures are spaced
+ * well past every recognizer timeout so they never run into each other
+ *
+ */
+
+package com.android.systemui.navigation.fling;
+
+import android.view.MotionEvent;
+
+final class TraceBuilder {
+    static final int WIDTH = 720;
+    static final int HEIGHT = 96;
+    static final int DENSITY_DPI = 320;
+    static final int LONG_PRESS_TIMEOUT = 500;
+    static final float LAND_THRESHOLD = 0.25f;
+    static final float PORT_THRESHOLD = 0.40f;
+    static final float VERT_THRESHOLD = 0.40f;
+
+    // quiet time before each down
+    private static final int GESTURE_GAP = 1000;
+    // panel report interval while moving
+    private static final int MOVE_INTERVAL = 8;
+
+    private final TouchTrace mTrace;
+    private long mDownTime;
+    private long mTime;
+    private float mX;
+    private float mY;
+
+    TraceBuilder() {
+        this(PORT_THRESHOLD);
+    }
+
+    /**
+     * @param portThreshold long swipe threshold on both sides
+     */
+    TraceBuilder(float portThreshold) {
+        mTrace = new TouchTrace(WIDTH, HEIGHT, DENSITY_DPI, false, false, LONG_PRESS_TIMEOUT);
+        mTrace.setThresholds(LAND_THRESHOLD, LAND_THRESHOLD, portThreshold, portThreshold,
+                VERT_THRESHOLD, VERT_THRESHOLD);
+    }
+
+    TraceBuilder doubleTap(boolean left, boolean right) {
+        mTrace.setDoubleTapEnabled(left, right);
+        return this;
+    }
+
+    TraceBuilder earlySwipe(boolean enabled) {
+        mTrace.setEarlySwipeEnabled(enabled);
+        return this;
+    }
+
+    /**
+     * Bind the short and long swipe each way to the same action, or not
+     */
+    TraceBuilder sameSwipeAction(boolean left, boolean right) {
+        mTrace.setSameSwipeAction(left, right);
+        return this;
+    }
+
+    TraceBuilder down(float x, float y) {
+        return downAfter(GESTURE_GAP, x, y);
+    }
+
+    /**
+     * Put a finger down a set time after the last event, for double taps
+     */
+    TraceBuilder downAfter(int millis, float x, float y) {
+        mTime += millis;
+        mDownTime = mTime;
+        mX = x;
+        mY = y;
+        add(MotionEvent.ACTION_DOWN);
+        return this;
+    }
+
+    TraceBuilder hold(int millis) {
+        mTime += millis;
+        return this;
+    }
+
+    /**
+     * Slide in a straight line, two samples per reported event
+     */
+    TraceBuilder moveTo(float x, float y, int events) {
+        final float startX = mX;
+        final float startY = mY;
+        final int samples = events * 2;
+        MotionEvent ev = null;
+        for (int i = 1; i <= samples; i++) {
+            final long time = mTime + i * MOVE_INTERVAL / 2;
+            final float sx = startX + (x - startX) * i / samples;
+            final float sy = startY + (y - startY) * i / samples;
+            if (ev == null) {
+                ev = MotionEvent.obtain(mDownTime, time, MotionEvent.ACTION_MOVE, sx, sy, 0);
+            } else {
+                ev.addBatch(time, sx, sy, 1f, 1f, 0);
+            }
+            if (i % 2 == 0) {
+                mTrace.add(ev);
+                ev.recycle();
+                ev = null;
+            }
+        }
+        mTime += events * MOVE_INTERVAL;
+        mX = x;
+        mY = y;
+        return this;
+    }
+
+    TraceBuilder up() {
+        add(MotionEvent.ACTION_UP);
+        return this;
+    }
+
+    TraceBuilder expect(FlingGesture gesture) {
+        mTrace.addExpected(gesture);
+        return this;
+    }
+
+    TouchTrace build() {
+        return mTrace;
+    }
+
+    private void add(int action) {
+        final MotionEvent ev = MotionEvent.obtain(mDownTime, mTime, action, mX, mY, 0);
+        mTrace.add(ev);
+        ev.recycle();
+    }
+}